@@ -3,9 +3,12 @@ DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
 
 
 # compile the java program
-javac -d $DIR/../lib $DIR/../src/PizzaStore.java
+javac -d $DIR/../lib $DIR/../src/*.java
 
 #run the java program
 #Use your database name, port number and login
 java -cp $DIR/../lib:$DIR/../lib/pg73jdbc3.jar PizzaStore $USER"_project_phase_3_DB" $PGPORT $USER
-
+#To keep orders in the shard databases listed in config/shards.conf instead
+#java -cp $DIR/../lib:$DIR/../lib/pg73jdbc3.jar PizzaStore $USER"_project_phase_3_DB" $PGPORT $USER --shards $DIR/../config/shards.conf
+#To acknowledge orders from a local journal and apply them in the background
+#java -cp $DIR/../lib:$DIR/../lib/pg73jdbc3.jar PizzaStore $USER"_project_phase_3_DB" $PGPORT $USER --journal $DIR/../orders.journal
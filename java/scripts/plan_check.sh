@@ -0,0 +1,10 @@
+#!/bin/bash
+# Checks the query plans of every statement PizzaStore issues against the
+# scaled database from sql/scripts/create_plan_check_db.sh. Exits non-zero
+# when a plan regressed; the report, with index recommendations, is also
+# written to plan_report.txt.
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+DB=${1:-$USER"_plan_check_DB"}
+
+javac -d $DIR/../lib $DIR/../src/*.java || exit 1
+java -cp $DIR/../lib:$DIR/../lib/pg73jdbc3.jar PlanCheck $DB $PGPORT $USER --report $DIR/../plan_report.txt
@@ -0,0 +1,320 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Limits how many statements of each operation class run against the
+ * database at once, over all client processes. Each class has a fixed number
+ * of slots, taken as Postgres advisory locks in the main database, and a
+ * statement runs only while its session holds one of them. The server frees
+ * the slots of a session that dies, so a crashed client cannot leak them.
+ *
+ * A request that finds no free slot queues for one: each class also has a
+ * fixed number of waiter slots, advisory locks as well, and a request that
+ * gets none of them is rejected at once. A queued request blocks on a slot
+ * lock under lock_timeout, so the server wakes it as soon as the slot is
+ * released, and it is rejected with an SQLException when the class's wait
+ * limit runs out first.
+ *
+ * Orders and status updates go first: while one of them waits for a slot,
+ * menu reads and reports are not admitted.
+ *
+ * Every client also adapts how many of its class's slots it competes for.
+ * The number grows slowly while the client has to wait for a slot, and
+ * shrinks when a statement times out or loses its connection, or takes much
+ * longer than the best seen for statements of the same shape. Statements
+ * that fail for other reasons, e.g. a constraint violation, do not count.
+ */
+public class AdmissionControl {
+
+   /**
+    * Operation classes with their number of slots and waiter slots, the
+    * longest a request may wait for a slot and the statement_timeout of
+    * their statements.
+    */
+   public enum OpClass {
+      ORDER  (true,  16, 64, 2000,  5000),
+      STATUS (true,  16, 64, 2000,  5000),
+      MENU   (false,  8, 16,  500,  5000),
+      REPORT (false,  4,  4,  100, 30000);
+
+      final boolean highPriority;
+      final int slots;
+      final int waiters;
+      final long maxWaitMs;
+      final long timeoutMs;
+
+      OpClass(boolean highPriority, int slots, int waiters, long maxWaitMs, long timeoutMs) {
+         this.highPriority = highPriority;
+         this.slots = slots;
+         this.waiters = waiters;
+         this.maxWaitMs = maxWaitMs;
+         this.timeoutMs = timeoutMs;
+      }
+   }
+
+   // advisory lock keys: (KEY_BASE + class ordinal, slot) for the slots,
+   // (QUEUE_KEY_BASE + class ordinal, n) for the waiter slots, and
+   // (WAITER_KEY, 0), held shared by every waiting high priority request
+   private static final int KEY_BASE = 166000;
+   private static final int QUEUE_KEY_BASE = KEY_BASE + OpClass.values().length;
+   private static final int WAITER_KEY = QUEUE_KEY_BASE + OpClass.values().length;
+
+   private static final double MIN_LIMIT = 1;
+   // latency above this multiple of the best latency counts as overload
+   private static final double LATENCY_TOLERANCE = 2.0;
+   private static final double BACKOFF = 0.9;
+   private static final double RTT_SMOOTHING = 0.2;
+   private static final double BASELINE_DRIFT = 0.01;
+   private static final int MAX_KINDS = 256;
+
+   // latency of one statement shape
+   private static class Latency {
+      double baselineMs;
+      double rttMs;
+   }
+
+   /**
+    * A slot held for one statement. Release it exactly once when the
+    * statement is done.
+    */
+   public class Permit {
+      private final OpClass _op;
+      private final int _slot;
+      private final String _kind;
+      private final boolean _waited;
+      private final long _start = System.nanoTime();
+      private long _end = 0;
+
+      private Permit(OpClass op, int slot, String kind, boolean waited) {
+         _op = op;
+         _slot = slot;
+         _kind = kind;
+         _waited = waited;
+      }
+
+      /**
+       * @param failure the error the statement failed with, or null when it succeeded
+       */
+      public void release(SQLException failure) {
+         if (--_depth > 0) return;
+         done(this, failure);
+      }
+   }
+
+   private final Connection _connection;
+   private final double[] _limits = new double[OpClass.values().length];
+   private final Map<String, Latency> _latencies = new HashMap<String, Latency>();
+
+   // nesting depth of the held permit, so a data-access method calling
+   // another one is not admitted twice
+   private int _depth = 0;
+   private Permit _held = null;
+
+   /**
+    * @param connection connection to the main database the slots are taken on;
+    *        used by one thread at a time, like the PizzaStore that owns it
+    */
+   public AdmissionControl(Connection connection) {
+      _connection = connection;
+      for (OpClass op : OpClass.values()) {
+         _limits[op.ordinal()] = op.slots;
+      }
+   }
+
+   /**
+    * Waits for a slot for one statement of the given class
+    *
+    * @param op the operation class
+    * @param sql the statement, or a name for a group of statements
+    * @return the permit to release when the statement is done
+    * @throws java.sql.SQLException when the request is rejected
+    */
+   public Permit acquire(OpClass op, String sql) throws SQLException {
+      if (_depth > 0) {
+         _depth++;
+         return _held;
+      }
+
+      int slot = trySlot(op);
+      boolean waited = slot < 0;
+      if (waited) {
+         slot = waitForSlot(op);
+      }
+
+      _held = new Permit(op, slot, kindOf(sql), waited);
+      _depth = 1;
+      return _held;
+   }//end acquire
+
+   /**
+    * Stops the latency clock of the held permit, so time spent e.g. printing
+    * a result does not count as statement latency. Does nothing when no
+    * permit is held or its clock already stopped.
+    */
+   public void stopClock() {
+      if (_held != null && _held._end == 0) _held._end = System.nanoTime();
+   }
+
+   /*
+    * Takes the first free slot among the ones this client competes for and
+    * returns it, or -1 when all are taken, in one statement. A low priority
+    * class first probes for waiting high priority requests: they hold
+    * (WAITER_KEY, 0) shared, so an exclusive try lock on it only succeeds
+    * when there are none, and it is released with the statement. The CASE
+    * makes sure no slot is taken when the probe fails.
+    */
+   private int trySlot(OpClass op) throws SQLException {
+      int last = (int) _limits[op.ordinal()] - 1;
+      if (op.highPriority) {
+         return firstOf(String.format(Sql.TAKE_SLOT, last, KEY_BASE + op.ordinal()));
+      }
+      return firstOf(String.format(Sql.TAKE_SLOT_UNLESS_WAITERS, last, WAITER_KEY, KEY_BASE + op.ordinal()));
+   }
+
+   /*
+    * Queues for a slot: takes a waiter slot, or rejects the request at once
+    * when the class's queue is full, then blocks on one slot lock until it
+    * is granted or the class's wait limit runs out.
+    */
+   private int waitForSlot(OpClass op) throws SQLException {
+      int waiter = firstOf(String.format(Sql.TAKE_SLOT, op.waiters - 1, QUEUE_KEY_BASE + op.ordinal()));
+      if (waiter < 0) throw rejected(op);
+
+      // waiters spread over the slots this client competes for
+      int slot = waiter % (int) _limits[op.ordinal()];
+      try {
+         if (op.highPriority) {
+            run(String.format(Sql.JOIN_WAITERS, WAITER_KEY));
+         }
+         run(String.format(Sql.SET_LOCK_TIMEOUT, op.maxWaitMs));
+         try {
+            run(String.format(Sql.WAIT_FOR_SLOT, KEY_BASE + op.ordinal(), slot));
+         } catch (SQLException e) {
+            if (isLockTimeout(e)) throw rejected(op);
+            throw e;
+         }
+         // a low priority request that got its slot while a high priority
+         // one queued gives way to it
+         if (!op.highPriority && firstOf(String.format(Sql.NO_WAITERS, WAITER_KEY)) < 0) {
+            unlock(op, slot);
+            throw rejected(op);
+         }
+         return slot;
+      } finally {
+         String leave = op.highPriority
+            ? String.format(Sql.LEAVE_QUEUE_AND_WAITERS, QUEUE_KEY_BASE + op.ordinal(), waiter, WAITER_KEY)
+            : String.format(Sql.LEAVE_QUEUE, QUEUE_KEY_BASE + op.ordinal(), waiter);
+         try {
+            run(leave);
+         } catch (SQLException e) {
+            // the connection is gone, and the server drops the locks with it
+         }
+      }
+   }//end waitForSlot
+
+   private int firstOf(String query) throws SQLException {
+      Statement stmt = _connection.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery(query);
+         return rs.next() ? rs.getInt(1) : -1;
+      } finally {
+         stmt.close();
+      }
+   }
+
+   private void run(String query) throws SQLException {
+      Statement stmt = _connection.createStatement();
+      try {
+         stmt.execute(query);
+      } finally {
+         stmt.close();
+      }
+   }
+
+   private SQLException rejected(OpClass op) {
+      return new SQLException("The database is busy, " + op.name().toLowerCase()
+         + " request rejected. Please try again shortly.");
+   }
+
+   private void unlock(OpClass op, int slot) {
+      try {
+         run(String.format(Sql.RELEASE_SLOT, KEY_BASE + op.ordinal(), slot));
+      } catch (SQLException e) {
+         // the connection is gone, and the server frees the slot with it
+      }
+   }
+
+   private void done(Permit permit, SQLException failure) {
+      _held = null;
+      double rttMs = ((permit._end != 0 ? permit._end : System.nanoTime()) - permit._start) / 1e6;
+      unlock(permit._op, permit._slot);
+
+      int i = permit._op.ordinal();
+      boolean overloaded = failure != null ? isOverload(failure) : isSlow(permit._kind, rttMs);
+      if (overloaded) {
+         _limits[i] = Math.max(MIN_LIMIT, _limits[i] * BACKOFF);
+      } else if (failure == null && permit._waited) {
+         _limits[i] = Math.min(permit._op.slots, _limits[i] + 1 / _limits[i]);
+      }
+   }//end done
+
+   /*
+    * Records the latency of a statement shape and tells whether it is well
+    * above the best seen for that shape.
+    */
+   private boolean isSlow(String kind, double rttMs) {
+      Latency latency = _latencies.get(kind);
+      if (latency == null) {
+         if (_latencies.size() < MAX_KINDS) {
+            latency = new Latency();
+            latency.rttMs = latency.baselineMs = rttMs;
+            _latencies.put(kind, latency);
+         }
+         return false;
+      }
+      latency.rttMs += RTT_SMOOTHING * (rttMs - latency.rttMs);
+      // the baseline follows the best latency, and drifts up slowly so a
+      // permanently slower database is not seen as overload forever
+      latency.baselineMs = Math.min(rttMs, latency.baselineMs + BASELINE_DRIFT * (latency.rttMs - latency.baselineMs));
+      return latency.rttMs > latency.baselineMs * LATENCY_TOLERANCE;
+   }
+
+   /*
+    * True for errors that mean the database is struggling: statement timeout
+    * or cancel (57014), lost connection (08xxx), out of resources (53xxx) or
+    * shutdown (57P0x). Older drivers leave SQLState empty, so the message is
+    * checked as well.
+    */
+   private static boolean isOverload(SQLException e) {
+      String state = e.getSQLState();
+      if (state != null && (state.equals("57014") || state.startsWith("08") || state.startsWith("53") || state.startsWith("57P"))) {
+         return true;
+      }
+      String message = e.getMessage() == null ? "" : e.getMessage().toLowerCase();
+      return message.contains("statement timeout") || message.contains("canceling statement")
+         || message.contains("connection") || message.contains("i/o error");
+   }
+
+   /*
+    * True for a lock wait cut off by lock_timeout (55P03). Older drivers
+    * leave SQLState empty, so the message is checked as well.
+    */
+   private static boolean isLockTimeout(SQLException e) {
+      if ("55P03".equals(e.getSQLState())) return true;
+      return e.getMessage() != null && e.getMessage().contains("lock timeout");
+   }
+
+   /*
+    * The shape of a statement: the SQL with its literals replaced by ?, and
+    * lists of them collapsed, so e.g. every order lookup shares one latency.
+    */
+   private static String kindOf(String sql) {
+      return sql.replaceAll("'[^']*'", "?")
+         .replaceAll("\\b\\d+(\\.\\d+)?\\b", "?")
+         .replaceAll("\\?(\\s*,\\s*\\?)+", "?");
+   }
+}//end AdmissionControl
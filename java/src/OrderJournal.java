@@ -0,0 +1,507 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Local append-only log of placed orders. An order is acknowledged as soon as
+ * its record is written to the memory-mapped journal file and forced to disk;
+ * a background thread then copies the journal into FoodOrder and ItemsInOrder
+ * in batches. The offset of the last applied record is kept in the file
+ * header, so after a restart replay resumes where it stopped. Orders the
+ * database rejects outright, e.g. for an unknown store, are moved to a
+ * dead-letter file next to the journal (<journal>.dead) so they do not hold
+ * up the orders behind them.
+ *
+ * Placing an order does not touch the database at all: orderIDs come from
+ * blocks reserved ahead per shard, and stores and item prices are checked
+ * against a snapshot of Store and Items that the replay thread refreshes.
+ * The snapshot can be a little stale; replay does the real validation and
+ * dead-letters what the database rejects.
+ *
+ * File layout:
+ *
+ *    header:  int magic, int unused, long appliedOffset
+ *    records: int length, int crc32(payload), payload
+ *
+ * A zero length word terminates the record list.
+ */
+public class OrderJournal {
+
+   /**
+    * A complete order as written to the journal.
+    */
+   public static class Order {
+      public int orderID;
+      public String login;
+      public int storeID;
+      public double totalPrice;
+      public String orderTimestamp;
+      public List<String> items = new ArrayList<String>();
+      public List<Integer> quantities = new ArrayList<Integer>();
+   }
+
+   private static final int MAGIC = 0x4f4a524e;   // "OJRN"
+   private static final int HEADER_SIZE = 16;
+   private static final int APPLIED_OFFSET = 8;
+   private static final int INITIAL_SIZE = 16 * 1024 * 1024;
+   private static final int BATCH_SIZE = 100;
+   private static final int ID_BLOCK = 1000;
+   private static final long SNAPSHOT_REFRESH_MS = 60000;
+   private static final long IDLE_WAIT_MS = 200;
+   private static final long MAX_RETRY_WAIT_MS = 5000;
+
+   private final RandomAccessFile _file;
+   private final FileChannel _channel;
+   private final FileLock _lock;
+   private final String _deadLetterPath;
+   private MappedByteBuffer _buffer;
+   private int _writePos;
+   private int _appliedPos;
+
+   // per shard, orderIDs reserved from the shard's sequence and not yet
+   // handed out; the replay thread tops them up so placing an order does
+   // not wait for them
+   private final List<ArrayDeque<Integer>> _orderIDs = new ArrayList<ArrayDeque<Integer>>();
+
+   // snapshot of Store and Items; replaced as a whole on refresh
+   private volatile Set<Integer> _stores;
+   private volatile Map<String, Double> _prices;
+   private long _snapshotTime;
+
+   private final PizzaStore _replayStore;
+   private final Thread _replayer;
+   private volatile boolean _running = true;
+
+   /**
+    * Opens (or creates) a journal and starts replaying it
+    *
+    * @param path location of the journal file
+    * @param esql connection used to reserve the first orderIDs and load the
+    *        first snapshot of Store and Items
+    * @param replayStore separate connection used only by the replay thread
+    * @throws java.io.IOException when the journal cannot be opened or another
+    *         process has it open
+    * @throws java.sql.SQLException when no orderIDs can be reserved or the
+    *         snapshot cannot be loaded
+    */
+   public OrderJournal(String path, PizzaStore esql, PizzaStore replayStore) throws IOException, SQLException {
+      _file = new RandomAccessFile(path, "rw");
+      _channel = _file.getChannel();
+      // two processes appending to the same mapping would overwrite each
+      // other's records, so the journal belongs to one process at a time
+      FileLock lock;
+      try {
+         lock = _channel.tryLock();
+      } catch (OverlappingFileLockException e) {
+         lock = null;
+      }
+      if (lock == null) {
+         _file.close();
+         throw new IOException(path + " is in use by another process");
+      }
+      _lock = lock;
+      _deadLetterPath = path + ".dead";
+      boolean fresh = _channel.size() == 0;
+      _buffer = _channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(_channel.size(), INITIAL_SIZE));
+
+      if (fresh) {
+         _buffer.putInt(0, MAGIC);
+         _buffer.putLong(APPLIED_OFFSET, HEADER_SIZE);
+         _buffer.putInt(HEADER_SIZE, 0);
+         _buffer.force();
+      } else if (_buffer.getInt(0) != MAGIC) {
+         throw new IOException(path + " is not an order journal");
+      }
+
+      // find the end of the valid records; a torn or corrupt record at the
+      // tail was never acknowledged, so it is cut off here
+      _appliedPos = (int) _buffer.getLong(APPLIED_OFFSET);
+      int pos = _appliedPos;
+      while (readAt(pos) != null) {
+         pos += 8 + _buffer.getInt(pos);
+      }
+      _writePos = pos;
+      _buffer.putInt(_writePos, 0);
+      _buffer.force();
+
+      loadSnapshot(esql);
+      for (int shard = 0; shard < esql.shardCount(); shard++) {
+         _orderIDs.add(new ArrayDeque<Integer>(esql.reserveOrderIDs(shard, ID_BLOCK)));
+      }
+      _replayStore = replayStore;
+      _replayer = new Thread(new Runnable() {
+         public void run() {
+            replay();
+         }
+      }, "order-journal-replay");
+      _replayer.setDaemon(true);
+      _replayer.start();
+   }//end OrderJournal
+
+   /**
+    * Assigns the order an orderID, appends it to the journal and forces it to
+    * disk. Once this returns the order will reach the database under that
+    * orderID: it was reserved from the sequence of the order's shard, so no
+    * other session can take it. Never waits for the database.
+    *
+    * @param order the complete order; its orderID is filled in
+    * @param shard the shard that owns the order's store
+    * @throws java.io.IOException when the record could not be written, or
+    *         no orderIDs are left because the database has been unreachable
+    *         for a whole block of orders
+    */
+   public synchronized void append(Order order, int shard) throws IOException {
+      ArrayDeque<Integer> orderIDs = _orderIDs.get(shard);
+      if (orderIDs.isEmpty()) {
+         throw new IOException("No orderIDs left for shard " + shard + ", the database is unreachable");
+      }
+      order.orderID = orderIDs.peek();
+      byte[] payload = encode(order);
+
+      // the record plus the terminator after it must fit in the mapping
+      int needed = _writePos + 8 + payload.length + 4;
+      if (needed > _buffer.capacity()) {
+         long size = _buffer.capacity();
+         while (size < needed) size *= 2;
+         _buffer.force();
+         _buffer = _channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      }
+
+      CRC32 crc = new CRC32();
+      crc.update(payload);
+      int pos = _writePos;
+      _buffer.putInt(pos + 4, (int) crc.getValue());
+      _buffer.put(pos + 8, payload);
+      _buffer.putInt(pos + 8 + payload.length, 0);
+      // the length word makes the record visible, so it goes in last
+      _buffer.putInt(pos, payload.length);
+      _buffer.force();
+
+      _writePos = pos + 8 + payload.length;
+      orderIDs.poll();
+      notifyAll();
+   }//end append
+
+   /**
+    * Tells whether a store exists, as of the last snapshot of Store
+    *
+    * @param storeID the store
+    * @return true when the store exists
+    */
+   public boolean hasStore(int storeID) {
+      return _stores.contains(storeID);
+   }
+
+   /**
+    * Looks an item's price up in the last snapshot of Items
+    *
+    * @param itemName the item
+    * @return the price, or null when there is no such item
+    */
+   public Double priceOf(String itemName) {
+      return _prices.get(itemName);
+   }
+
+   /**
+    * @return the number of journalled orders not yet applied to the database
+    */
+   public synchronized int pending() {
+      int count = 0;
+      for (int pos = _appliedPos; pos < _writePos; pos += 8 + _buffer.getInt(pos)) {
+         count++;
+      }
+      return count;
+   }
+
+   /**
+    * Stops the replay thread, giving it a few seconds to drain the journal,
+    * and closes the file. Orders left in the journal are replayed on the
+    * next start.
+    */
+   public void close() {
+      long deadline = System.currentTimeMillis() + MAX_RETRY_WAIT_MS;
+      while (pending() > 0 && System.currentTimeMillis() < deadline) {
+         try {
+            Thread.sleep(50);
+         } catch (InterruptedException e) {
+            break;
+         }
+      }
+      _running = false;
+      synchronized (this) {
+         notifyAll();
+      }
+      try {
+         _replayer.join(MAX_RETRY_WAIT_MS);
+      } catch (InterruptedException e) {
+         // ignored.
+      }
+      synchronized (this) {
+         _buffer.force();
+         try {
+            _lock.release();
+            _channel.close();
+            _file.close();
+         } catch (IOException e) {
+            // ignored.
+         }
+      }
+      _replayStore.cleanup();
+   }//end close
+
+   /*
+    * Replay loop: applies batches of records in order and advances the
+    * applied offset only after every shard in the batch has committed.
+    * Applying is idempotent, so a crash between commit and offset update
+    * just replays the same orders again. When the database is unavailable
+    * the batch is retried with backoff; when it rejects an order, the batch
+    * is applied one order at a time and the rejected orders are moved to
+    * the dead-letter file.
+    */
+   private void replay() {
+      long retryWait = IDLE_WAIT_MS;
+      _replayStore.setOperationClass(AdmissionControl.OpClass.ORDER);
+      while (_running) {
+         topUpOrderIDs();
+         if (System.currentTimeMillis() - _snapshotTime >= SNAPSHOT_REFRESH_MS) {
+            try {
+               loadSnapshot(_replayStore);
+            } catch (SQLException e) {
+               // the old snapshot stays in use, tried again on the next pass
+            }
+         }
+         List<Order> batch = new ArrayList<Order>();
+         int batchEnd;
+         synchronized (this) {
+            if (_appliedPos == _writePos) {
+               try {
+                  wait(IDLE_WAIT_MS);
+               } catch (InterruptedException e) {
+                  return;
+               }
+               continue;
+            }
+            int pos = _appliedPos;
+            while (pos < _writePos && batch.size() < BATCH_SIZE) {
+               batch.add(readAt(pos));
+               pos += 8 + _buffer.getInt(pos);
+            }
+            batchEnd = pos;
+         }
+
+         try {
+            try {
+               applyBatch(batch);
+            } catch (SQLException e) {
+               if (!isRejected(e)) throw e;
+               // one rejected order fails its whole shard transaction
+               for (Order order : batch) {
+                  applyOrder(order);
+               }
+            }
+            retryWait = IDLE_WAIT_MS;
+         } catch (SQLException | IOException e) {
+            // the database is unavailable; keep the records and try again later
+            System.err.println("Order journal: replay failed, retrying: " + e.getMessage());
+            try {
+               Thread.sleep(retryWait);
+            } catch (InterruptedException ie) {
+               return;
+            }
+            retryWait = Math.min(retryWait * 2, MAX_RETRY_WAIT_MS);
+            continue;
+         }
+
+         synchronized (this) {
+            _appliedPos = batchEnd;
+            if (_appliedPos == _writePos) {
+               // everything is applied, start writing from the top again
+               _buffer.putInt(HEADER_SIZE, 0);
+               _appliedPos = _writePos = HEADER_SIZE;
+            }
+            _buffer.putLong(APPLIED_OFFSET, _appliedPos);
+            _buffer.force();
+         }
+      }
+   }//end replay
+
+   private void applyBatch(List<Order> batch) throws SQLException {
+      Map<Integer, List<Order>> byShard = new HashMap<Integer, List<Order>>();
+      for (Order order : batch) {
+         int shard = _replayStore.shardForStore(order.storeID);
+         if (!byShard.containsKey(shard)) byShard.put(shard, new ArrayList<Order>());
+         byShard.get(shard).add(order);
+      }
+      for (Map.Entry<Integer, List<Order>> e : byShard.entrySet()) {
+         _replayStore.insertOrders(e.getKey(), e.getValue());
+      }
+   }
+
+   /*
+    * Applies one order, or moves it to the dead-letter file when the
+    * database rejects it. Errors that may go away are thrown.
+    */
+   private void applyOrder(Order order) throws SQLException, IOException {
+      try {
+         _replayStore.insertOrders(_replayStore.shardForStore(order.storeID), Collections.singletonList(order));
+      } catch (SQLException e) {
+         if (!isRejected(e)) throw e;
+         deadLetter(order, e.getMessage());
+      }
+   }
+
+   /*
+    * True when the database refused the order itself (integrity constraint
+    * violation, SQLSTATE class 23, or no partition for its timestamp) rather
+    * than failing to run the statement. Older drivers leave SQLState empty,
+    * so the message is checked as well.
+    */
+   private static boolean isRejected(SQLException e) {
+      String state = e.getSQLState();
+      if (state != null && state.startsWith("23")) return true;
+      String message = e.getMessage() == null ? "" : e.getMessage();
+      return message.contains("violates") || message.contains("no partition of relation");
+   }
+
+   private void deadLetter(Order order, String reason) throws IOException {
+      StringBuilder items = new StringBuilder();
+      for (int i = 0; i < order.items.size(); i++) {
+         if (i > 0) items.append(';');
+         items.append(order.items.get(i)).append(':').append(order.quantities.get(i));
+      }
+      FileWriter out = new FileWriter(_deadLetterPath, true);
+      try {
+         out.write(order.orderID + "," + order.login + "," + order.storeID + "," + order.totalPrice + ","
+            + order.orderTimestamp + "," + items + "," + reason.replace('\n', ' ') + "\n");
+      } finally {
+         out.close();
+      }
+      System.err.println("Order journal: order " + order.orderID + " rejected, moved to " + _deadLetterPath + ": " + reason);
+   }
+
+   /*
+    * Reserves the next block of orderIDs of every shard that has fewer than
+    * half a block left, so append does not have to wait for the database.
+    */
+   private void topUpOrderIDs() {
+      for (int shard = 0; shard < _orderIDs.size(); shard++) {
+         synchronized (this) {
+            if (_orderIDs.get(shard).size() >= ID_BLOCK / 2) continue;
+         }
+         try {
+            List<Integer> orderIDs = _replayStore.reserveOrderIDs(shard, ID_BLOCK);
+            synchronized (this) {
+               _orderIDs.get(shard).addAll(orderIDs);
+            }
+         } catch (SQLException e) {
+            // tried again on the next pass
+         }
+      }
+   }
+
+   /*
+    * Replaces the snapshot of Store and Items. Loaded completely before it
+    * is published, so placeOrder never sees a half-filled snapshot.
+    */
+   private void loadSnapshot(PizzaStore esql) throws SQLException {
+      Set<Integer> stores = new HashSet<Integer>();
+      for (List<String> row : esql.executeQueryAndReturnResult(Sql.STORE_IDS)) {
+         stores.add(Integer.parseInt(row.get(0).trim()));
+      }
+      Map<String, Double> prices = new HashMap<String, Double>();
+      for (List<String> row : esql.executeQueryAndReturnResult(Sql.ITEM_PRICES)) {
+         prices.put(row.get(0), Double.parseDouble(row.get(1)));
+      }
+      _stores = stores;
+      _prices = prices;
+      _snapshotTime = System.currentTimeMillis();
+   }
+
+   /*
+    * Decodes the record at pos, or returns null at the terminator or at a
+    * record whose length or checksum does not match.
+    */
+   private Order readAt(int pos) {
+      if (pos + 8 > _buffer.capacity()) return null;
+      int length = _buffer.getInt(pos);
+      if (length <= 0 || pos + 8 + length > _buffer.capacity()) return null;
+
+      byte[] payload = new byte[length];
+      _buffer.get(pos + 8, payload);
+      CRC32 crc = new CRC32();
+      crc.update(payload);
+      if ((int) crc.getValue() != _buffer.getInt(pos + 4)) return null;
+
+      try {
+         return decode(ByteBuffer.wrap(payload));
+      } catch (RuntimeException e) {
+         return null;
+      }
+   }
+
+   private static byte[] encode(Order order) {
+      List<byte[]> strings = new ArrayList<byte[]>();
+      strings.add(order.login.getBytes(StandardCharsets.UTF_8));
+      strings.add(order.orderTimestamp.getBytes(StandardCharsets.UTF_8));
+      for (String item : order.items) {
+         strings.add(item.getBytes(StandardCharsets.UTF_8));
+      }
+      int size = 4 + 4 + 8 + 4 + 4 * order.quantities.size();
+      for (byte[] s : strings) size += 4 + s.length;
+
+      ByteBuffer buf = ByteBuffer.allocate(size);
+      buf.putInt(order.orderID);
+      buf.putInt(order.storeID);
+      buf.putDouble(order.totalPrice);
+      putString(buf, strings.get(0));
+      putString(buf, strings.get(1));
+      buf.putInt(order.items.size());
+      for (int i = 0; i < order.items.size(); i++) {
+         putString(buf, strings.get(i + 2));
+         buf.putInt(order.quantities.get(i));
+      }
+      return buf.array();
+   }
+
+   private static Order decode(ByteBuffer buf) {
+      Order order = new Order();
+      order.orderID = buf.getInt();
+      order.storeID = buf.getInt();
+      order.totalPrice = buf.getDouble();
+      order.login = getString(buf);
+      order.orderTimestamp = getString(buf);
+      int count = buf.getInt();
+      for (int i = 0; i < count; i++) {
+         order.items.add(getString(buf));
+         order.quantities.add(buf.getInt());
+      }
+      return order;
+   }
+
+   private static void putString(ByteBuffer buf, byte[] s) {
+      buf.putInt(s.length);
+      buf.put(s);
+   }
+
+   private static String getString(ByteBuffer buf) {
+      byte[] s = new byte[buf.getInt()];
+      buf.get(s);
+      return new String(s, StandardCharsets.UTF_8);
+   }
+}//end OrderJournal
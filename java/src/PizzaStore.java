@@ -17,14 +17,22 @@ import java.sql.Statement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.PriorityQueue;
 import java.lang.Math;
 import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.io.IOException;
 
 /**
@@ -37,6 +45,29 @@ public class PizzaStore {
    // reference to physical database connection.
    private Connection _connection = null;
 
+   // connections to the databases holding FoodOrder and ItemsInOrder, indexed
+   // by shard number. Without a shard map this is just _connection.
+   private List<Connection> _shards = new ArrayList<Connection>();
+   private ShardMap _shardMap = null;
+
+   // "<shard> <YYYY-MM>" of every order month known to have its partition
+   private final Set<String> _partitionMonths = new HashSet<String>();
+
+   // local order journal, null unless started with --journal
+   private OrderJournal _journal = null;
+
+   // admission control over the main connection, the operation class
+   // statements are admitted under, and the class whose statement_timeout
+   // the connections currently have
+   private AdmissionControl _admission = null;
+   private AdmissionControl.OpClass _operation = AdmissionControl.OpClass.MENU;
+   private AdmissionControl.OpClass _timeoutFor = null;
+
+   // allowed {from, to} order status changes for bulk updates
+   private static final String[][] ORDER_STATUS_TRANSITIONS = {
+      { "incomplete", "complete" },
+   };
+
    public String login = null;
    public String password = null;
    // handling the keyboard inputs through a BufferedReader
@@ -54,6 +85,21 @@ public class PizzaStore {
     * @throws java.sql.SQLException when failed to make a connection.
     */
    public PizzaStore(String dbname, String dbport, String user, String passwd) throws SQLException {
+      this(dbname, dbport, user, passwd, null);
+   }//end PizzaStore
+
+   /**
+    * Creates a new instance of PizzaStore whose orders are spread over the
+    * databases listed in a shard map. Users, Items and Store stay in dbname.
+    *
+    * @param dbname the name of the main database
+    * @param dbport the database port
+    * @param user the user name used to login to the databases
+    * @param passwd the user login password
+    * @param shardMap storeID to database map, or null to keep orders in dbname
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public PizzaStore(String dbname, String dbport, String user, String passwd, ShardMap shardMap) throws SQLException {
 
       System.out.print("Connecting to database...");
       try{
@@ -63,6 +109,19 @@ public class PizzaStore {
 
          // obtain a physical connection
          this._connection = DriverManager.getConnection(url, user, passwd);
+
+         this._shardMap = shardMap;
+         if (shardMap == null) {
+            this._shards.add(this._connection);
+         } else {
+            for (int i = 0; i < shardMap.size(); i++) {
+               String shardUrl = "jdbc:postgresql://localhost:" + dbport + "/" + shardMap.databaseOf(i);
+               System.out.println ("Shard " + i + " URL: " + shardUrl);
+               this._shards.add(DriverManager.getConnection(shardUrl, user, passwd));
+            }
+         }
+         checkOrderIDSequences();
+         this._admission = new AdmissionControl(this._connection);
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -71,6 +130,47 @@ public class PizzaStore {
       }//end catch
    }//end PizzaStore
 
+   // a data-access call run under admission control
+   private interface SqlCall<T> {
+      T run() throws SQLException;
+   }
+
+   /*
+    * Runs a data-access call once the current operation class admits it,
+    * under that class's statement_timeout, and reports its latency and
+    * outcome back to the admission control.
+    */
+   private <T> T admitted(String sql, SqlCall<T> call) throws SQLException {
+      AdmissionControl.Permit permit = this._admission.acquire(this._operation, sql);
+      SQLException failure = null;
+      try {
+         if (this._timeoutFor != this._operation) {
+            String timeout = String.format(Sql.SET_STATEMENT_TIMEOUT, this._operation.timeoutMs);
+            executeUpdate (this._connection, timeout);
+            for (Connection conn : this._shards) {
+               if (conn != this._connection) executeUpdate (conn, timeout);
+            }
+            this._timeoutFor = this._operation;
+         }
+         return call.run();
+      } catch (SQLException e) {
+         failure = e;
+         throw e;
+      } finally {
+         permit.release(failure);
+      }
+   }
+
+   /**
+    * Sets the operation class the statements of this instance are admitted
+    * under.
+    *
+    * @param op the operation class
+    */
+   public void setOperationClass(AdmissionControl.OpClass op) {
+      this._operation = op;
+   }
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
@@ -79,14 +179,19 @@ public class PizzaStore {
     * @throws java.sql.SQLException when update failed
     */
    public void executeUpdate (String sql) throws SQLException {
+      admitted(sql, () -> executeUpdate (this._connection, sql));
+   }//end executeUpdate
+
+   private static int executeUpdate (Connection conn, String sql) throws SQLException {
       // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      Statement stmt = conn.createStatement ();
 
       // issues the update instruction
-      stmt.executeUpdate (sql);
+      int rowCount = stmt.executeUpdate (sql);
 
       // close the instruction
       stmt.close ();
+      return rowCount;
    }//end executeUpdate
 
    /**
@@ -99,11 +204,17 @@ public class PizzaStore {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQueryAndPrintResult (String query) throws SQLException {
+      return admitted(query, () -> executeQueryAndPrintResult (this._connection, query));
+   }//end executeQueryAndPrintResult
+
+   private int executeQueryAndPrintResult (Connection conn, String query) throws SQLException {
       // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      Statement stmt = conn.createStatement ();
 
       // issues the query instruction
       ResultSet rs = stmt.executeQuery (query);
+      // the statement is done, printing its result is not its latency
+      this._admission.stopClock();
 
       /*
        ** obtains the metadata object for the returned result set.  The metadata
@@ -142,8 +253,12 @@ public class PizzaStore {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
+      return admitted(query, () -> executeQueryAndReturnResult (this._connection, query));
+   }//end executeQueryAndReturnResult
+
+   private static List<List<String>> executeQueryAndReturnResult (Connection conn, String query) throws SQLException {
       // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      Statement stmt = conn.createStatement ();
 
       // issues the query instruction
       ResultSet rs = stmt.executeQuery (query);
@@ -178,20 +293,22 @@ public class PizzaStore {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
-
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
-
-       int rowCount = 0;
-
-       // iterates through the result set and count nuber of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
+      return admitted(query, () -> {
+          // creates a statement object
+          Statement stmt = this._connection.createStatement ();
+
+          // issues the query instruction
+          ResultSet rs = stmt.executeQuery (query);
+
+          int rowCount = 0;
+
+          // iterates through the result set and count nuber of results.
+          while (rs.next()){
+             rowCount++;
+          }//end while
+          stmt.close ();
+          return rowCount;
+      });
    }
 
    /**
@@ -212,11 +329,484 @@ public class PizzaStore {
 	return -1;
    }
 
+   /**
+    * @return the number of order shards
+    */
+   public int shardCount() {
+      return this._shards.size();
+   }
+
+   /**
+    * Finds the shard that owns the orders of a store
+    *
+    * @param storeID the store
+    * @return shard number
+    * @throws java.sql.SQLException when no shard owns the store
+    */
+   public int shardForStore(int storeID) throws SQLException {
+      if (this._shardMap == null) return 0;
+      int shard = this._shardMap.shardFor(storeID);
+      if (shard < 0) {
+         // reported as a foreign key violation: the store is unknown here
+         throw new SQLException("No shard owns store " + storeID, "23503");
+      }
+      return shard;
+   }
+
+   /**
+    * Tells whether a store exists. With an order journal the journal's
+    * snapshot of Store answers, so placing an order needs no database call.
+    *
+    * @param storeID the store
+    * @return true when the store exists
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public boolean storeExists(int storeID) throws SQLException {
+      if (this._journal != null) return this._journal.hasStore(storeID);
+      return !executeQueryAndReturnResult(String.format(Sql.STORE_EXISTS, storeID)).isEmpty();
+   }
+
+   /**
+    * Returns the price of an item. With an order journal the journal's
+    * snapshot of Items answers, so placing an order needs no database call.
+    *
+    * @param itemName the item
+    * @return the price, or null when there is no such item
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public Double itemPrice(String itemName) throws SQLException {
+      if (this._journal != null) return this._journal.priceOf(itemName);
+      List<List<String>> result = executeQueryAndReturnResult(String.format(Sql.ITEM_PRICE, itemName));
+      return result.isEmpty() ? null : Double.parseDouble(result.get(0).get(0));
+   }
+
+   /**
+    * Returns the shard an orderID was allocated on. Every shard's orderID
+    * sequence only hands out orderIDs that are the shard's number modulo
+    * shardCount() (see checkOrderIDSequences); orders loaded before sharding
+    * may live on any shard.
+    *
+    * @param orderID the order
+    * @return shard number
+    */
+   public int shardForOrder(int orderID) {
+      return Math.floorMod(orderID, this._shards.size());
+   }
+
+   /*
+    * Makes sure every shard's orderID sequence steps by the shard count and
+    * starts on the shard's own residue, so orderIDs route back to their
+    * shard and never collide across shards.
+    */
+   private void checkOrderIDSequences() throws SQLException {
+      for (int shard = 0; shard < this._shards.size(); shard++) {
+         List<List<String>> result = executeQueryAndReturnResult(this._shards.get(shard), Sql.ORDER_ID_SEQUENCE);
+         if (result.isEmpty()
+               || Long.parseLong(result.get(0).get(0)) != this._shards.size()
+               || Math.floorMod(Long.parseLong(result.get(0).get(1)), (long) this._shards.size()) != shard) {
+            throw new SQLException("The orderID sequence of shard " + shard
+               + " does not match the shard map, recreate the shards with sql/scripts/create_shards.sh");
+         }
+      }
+   }
+
+   /**
+    * Allocates a new orderID on a shard
+    *
+    * @param shard shard number
+    * @return an unused orderID that routes back to the shard
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int nextOrderID(int shard) throws SQLException {
+      return reserveOrderIDs(shard, 1).get(0);
+   }
+
+   /**
+    * Allocates several orderIDs on a shard at once
+    *
+    * @param shard shard number
+    * @param count how many orderIDs to allocate
+    * @return count unused orderIDs that route back to the shard
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<Integer> reserveOrderIDs(int shard, int count) throws SQLException {
+      List<Integer> orderIDs = new ArrayList<Integer>();
+      for (List<String> row : executeQueryAndReturnResultOnShard(shard, String.format(Sql.RESERVE_ORDER_IDS, count))) {
+         orderIDs.add(Integer.parseInt(row.get(0)));
+      }
+      return orderIDs;
+   }
+
+   /**
+    * Looks an order up in the OrderRegistry of the shard its orderID routes
+    * to, and for orders loaded before sharding in the main database.
+    *
+    * @param orderID the order
+    * @return the order's storeID and orderTimestamp, or null when there is no such order
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<String> findOrder(int orderID) throws SQLException {
+      String query = String.format(Sql.FIND_ORDER, orderID);
+      List<List<String>> result = executeQueryAndReturnResultOnShard(shardForOrder(orderID), query);
+      if (result.isEmpty() && this._shardMap != null) {
+         result = executeQueryAndReturnResult(query);
+      }
+      return result.isEmpty() ? null : result.get(0);
+   }
+
+   /**
+    * Method to execute an update SQL statement on one shard.
+    *
+    * @param shard shard number
+    * @param sql the input SQL string
+    * @return the number of rows changed
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdateOnShard (int shard, String sql) throws SQLException {
+      return admitted(sql, () -> executeUpdate (this._shards.get(shard), sql));
+   }
+
+   /**
+    * Method to execute an update SQL statement on every shard.
+    *
+    * @param sql the input SQL string
+    * @return the number of rows changed over all shards
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdateOnAllShards (String sql) throws SQLException {
+      return admitted(sql, () -> {
+         int rowCount = 0;
+         for (Connection conn : this._shards) {
+            rowCount += executeUpdate (conn, sql);
+         }
+         return rowCount;
+      });
+   }
+
+   /**
+    * Same as executeQueryAndPrintResult, issued on one shard.
+    */
+   public int executeQueryAndPrintResultOnShard (int shard, String query) throws SQLException {
+      return admitted(query, () -> executeQueryAndPrintResult (this._shards.get(shard), query));
+   }
+
+   /**
+    * Same as executeQueryAndReturnResult, issued on one shard.
+    */
+   public List<List<String>> executeQueryAndReturnResultOnShard (int shard, String query) throws SQLException {
+      return admitted(query, () -> executeQueryAndReturnResult (this._shards.get(shard), query));
+   }
+
+   /**
+    * Stores complete orders on a shard in one transaction, together with
+    * their rows in the shard's OrderRegistry. Orders that are already stored are
+    * skipped, so a batch can safely be applied twice.
+    *
+    * @param shard shard number
+    * @param orders the orders, all belonging to stores of this shard
+    * @throws java.sql.SQLException when the orders could not be stored
+    */
+   public void insertOrders(int shard, List<OrderJournal.Order> orders) throws SQLException {
+      admitted("insertOrders", () -> {
+         storeOrders(shard, orders);
+         return null;
+      });
+   }//end insertOrders
+
+   private void storeOrders(int shard, List<OrderJournal.Order> orders) throws SQLException {
+      if (orders.isEmpty()) return;
+      Connection conn = this._shards.get(shard);
+
+      // an order in a month without a partition would be rejected, so the
+      // missing months are created first, outside the transaction
+      for (OrderJournal.Order order : orders) {
+         String month = order.orderTimestamp.substring(0, 7);
+         if (!this._partitionMonths.contains(shard + " " + month)) {
+            executeQueryAndReturnResult(conn, String.format(Sql.CREATE_ORDER_PARTITION, month + "-01"));
+            this._partitionMonths.add(shard + " " + month);
+         }
+      }
+
+      conn.setAutoCommit(false);
+      try {
+         // the registry rows commit together with the orders, so an orderID
+         // that is already registered is an order an earlier attempt stored
+         StringBuilder registry = new StringBuilder();
+         for (OrderJournal.Order order : orders) {
+            appendValues(registry, order.orderID, order.storeID, order.orderTimestamp);
+         }
+         Set<String> registered = new HashSet<String>();
+         for (List<String> row : executeQueryAndReturnResult(conn, String.format(Sql.REGISTER_ORDERS, registry))) {
+            registered.add(row.get(0).trim());
+         }
+
+         StringBuilder foodOrders = new StringBuilder();
+         StringBuilder items = new StringBuilder();
+         for (OrderJournal.Order order : orders) {
+            if (!registered.contains(String.valueOf(order.orderID))) continue;
+            appendValues(foodOrders, order.orderID, order.login, order.storeID, order.totalPrice, order.orderTimestamp, "incomplete");
+            for (int i = 0; i < order.items.size(); i++) {
+               appendValues(items, order.orderID, order.items.get(i), order.quantities.get(i), order.orderTimestamp);
+            }
+         }
+         if (foodOrders.length() > 0) {
+            executeUpdate(conn, String.format(Sql.INSERT_ORDERS, foodOrders));
+         }
+         if (items.length() > 0) {
+            executeUpdate(conn, String.format(Sql.INSERT_ORDER_ITEMS, items));
+         }
+         conn.commit();
+      } catch (SQLException e) {
+         conn.rollback();
+         throw e;
+      } finally {
+         conn.setAutoCommit(true);
+      }
+   }//end storeOrders
+
+   // appends one ('v1', 'v2', ...) tuple to the VALUES list of a multi-row insert
+   private static void appendValues(StringBuilder values, Object... fields) {
+      if (values.length() > 0) values.append(", ");
+      values.append("(");
+      for (int i = 0; i < fields.length; i++) {
+         if (i > 0) values.append(", ");
+         values.append("'").append(fields[i]).append("'");
+      }
+      values.append(")");
+   }
+
+   // rows a scatter-gather merge fetches from a shard at a time
+   private static final int SCATTER_FETCH_SIZE = 500;
+
+   // one shard's open cursor during a scatter-gather merge
+   private static class ShardCursor {
+      Connection conn;
+      Statement stmt;
+      ResultSet rs;
+      int seen;   // rows read from the current block
+      Timestamp key;
+
+      void fetch() throws SQLException {
+         rs = stmt.executeQuery(String.format(Sql.FETCH_SCATTER, SCATTER_FETCH_SIZE));
+         seen = 0;
+      }
+
+      /*
+       * Moves to the next row, fetching the next block once the current one
+       * is used up. Returns false at the end of the shard's result.
+       */
+      boolean next(int orderColumn) throws SQLException {
+         if (!rs.next()) {
+            // a short block was the last one
+            if (seen < SCATTER_FETCH_SIZE) return false;
+            fetch();
+            if (!rs.next()) return false;
+         }
+         seen++;
+         key = rs.getTimestamp(orderColumn);
+         return true;
+      }
+   }
+
+   /**
+    * Method to run a query on every shard and print the combined result to
+    * standard out. Every shard must return its rows newest first on the
+    * timestamp column orderColumn; the shard results are read through
+    * cursors a block at a time and merged row by row, so the output is
+    * newest first over all shards and no shard's whole result is held in
+    * memory.
+    *
+    * @param query the input query string, ordered by orderColumn DESC
+    * @param orderColumn 1-based index of the timestamp column to merge on
+    * @param limit maximum number of rows to print, 0 for all
+    * @return the number of rows printed
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeScatterQueryAndPrintResult (final String query, final int orderColumn, int limit) throws SQLException {
+      return admitted(query, () -> scatterQueryAndPrintResult (query, orderColumn, limit));
+   }//end executeScatterQueryAndPrintResult
+
+   private int scatterQueryAndPrintResult (final String query, final int orderColumn, int limit) throws SQLException {
+      List<ShardCursor> cursors = new ArrayList<ShardCursor>();
+      try {
+         // scatter: open a cursor for the query on every shard; a cursor
+         // only lives inside a transaction
+         PriorityQueue<ShardCursor> heads = new PriorityQueue<ShardCursor>(this._shards.size(),
+            (a, b) -> a.key == null ? (b.key == null ? 0 : 1) : b.key == null ? -1 : b.key.compareTo(a.key));
+         ResultSetMetaData rsmd = null;
+         for (Connection conn : this._shards) {
+            ShardCursor cursor = new ShardCursor();
+            cursor.conn = conn;
+            conn.setAutoCommit(false);
+            cursors.add(cursor);
+            cursor.stmt = conn.createStatement ();
+            cursor.stmt.execute (String.format(Sql.DECLARE_SCATTER, query.replaceAll(";\\s*$", "")));
+            cursor.fetch();
+            if (rsmd == null) rsmd = cursor.rs.getMetaData ();
+            if (cursor.next(orderColumn)) {
+               heads.add(cursor);
+            }
+         }
+         // later blocks are fetched while printing, the latency is the
+         // time to the first rows of every shard
+         this._admission.stopClock();
+
+         // gather: k-way merge of the shard cursors on orderColumn
+         int numCol = rsmd.getColumnCount ();
+         int rowCount = 0;
+         boolean outputHeader = true;
+         while (!heads.isEmpty() && (limit <= 0 || rowCount < limit)) {
+            ShardCursor cursor = heads.poll();
+            if(outputHeader){
+               for(int i = 1; i <= numCol; i++){
+                  System.out.print(rsmd.getColumnName(i) + "\t");
+               }
+               System.out.println();
+               outputHeader = false;
+            }
+            for (int i=1; i<=numCol; ++i)
+               System.out.print (cursor.rs.getString (i) + "\t");
+            System.out.println ();
+            ++rowCount;
+            if (cursor.next(orderColumn)) {
+               heads.add(cursor);
+            }
+         }//end while
+         return rowCount;
+      } finally {
+         // ending the read-only transaction closes the cursor
+         for (ShardCursor cursor : cursors) {
+            if (cursor.stmt != null) cursor.stmt.close();
+            cursor.conn.rollback();
+            cursor.conn.setAutoCommit(true);
+         }
+      }
+   }//end scatterQueryAndPrintResult
+
+   /**
+    * Sets the status of a list of orders in one statement per shard. Only
+    * orders whose current status may move to the new status are changed.
+    *
+    * @param orderIDs the orders to update
+    * @param status the new status
+    * @return orderID and storeID of every updated order
+    * @throws java.sql.SQLException when the status is unknown or the update failed
+    */
+   public List<List<String>> bulkUpdateOrderStatus(List<Integer> orderIDs, String status) throws SQLException {
+      if (orderIDs.isEmpty()) return new ArrayList<List<String>>();
+      StringBuilder ids = new StringBuilder();
+      for (int orderID : orderIDs) {
+         if (ids.length() > 0) ids.append(", ");
+         ids.append(orderID);
+      }
+      String from = transitionsTo(status);
+      List<List<String>> result = new ArrayList<List<String>>();
+      for (Map.Entry<Integer, Timestamp[]> span : orderSpans(String.format(Sql.ORDER_SPANS_OF_LIST, ids)).entrySet()) {
+         result.addAll(executeQueryAndReturnResultOnShard(span.getKey(), String.format(Sql.BULK_STATUS_OF_LIST,
+            status.trim(), ids, span.getValue()[0], span.getValue()[1], from)));
+      }
+      return result;
+   }
+
+   /**
+    * Sets the status of every order in an orderID range.
+    *
+    * @param firstOrderID first order of the range
+    * @param lastOrderID last order of the range, inclusive
+    * @param status the new status
+    * @return orderID and storeID of every updated order
+    * @throws java.sql.SQLException when the status is unknown or the update failed
+    */
+   public List<List<String>> bulkUpdateOrderStatus(int firstOrderID, int lastOrderID, String status) throws SQLException {
+      String from = transitionsTo(status);
+      List<List<String>> result = new ArrayList<List<String>>();
+      for (Map.Entry<Integer, Timestamp[]> span : orderSpans(String.format(Sql.ORDER_SPANS_OF_RANGE, firstOrderID, lastOrderID)).entrySet()) {
+         result.addAll(executeQueryAndReturnResultOnShard(span.getKey(), String.format(Sql.BULK_STATUS_OF_RANGE,
+            status.trim(), firstOrderID, lastOrderID, span.getValue()[0], span.getValue()[1], from)));
+      }
+      return result;
+   }
+
+   /**
+    * Sets the status of every order of a store placed before a given time
+    * whose current status allows the change, e.g. to close out a shift.
+    *
+    * @param storeID the store
+    * @param olderThan only orders placed before this time (UTC, like the
+    *        stored orderTimestamps) are updated
+    * @param status the new status
+    * @return orderID and storeID of every updated order
+    * @throws java.sql.SQLException when the status is unknown or the update failed
+    */
+   public List<List<String>> bulkUpdateOrderStatus(int storeID, Timestamp olderThan, String status) throws SQLException {
+      return executeQueryAndReturnResultOnShard(shardForStore(storeID), String.format(Sql.BULK_STATUS_OF_STORE,
+         status.trim(), storeID, olderThan, transitionsTo(status)));
+   }
+
+   /*
+    * Runs a query on every OrderRegistry (each shard's, and the main
+    * database's for orders loaded before sharding) returning storeID, first
+    * and last orderTimestamp, and folds the rows into one timestamp span per
+    * shard.
+    * Bulk updates by orderID bound each shard's UPDATE by its span, so it
+    * only touches the month partitions in that span and shards without
+    * matching orders are skipped.
+    */
+   private Map<Integer, Timestamp[]> orderSpans(String query) throws SQLException {
+      Map<Integer, Timestamp[]> spans = new HashMap<Integer, Timestamp[]>();
+      List<List<String>> rows = new ArrayList<List<String>>();
+      for (int i = 0; i < this._shards.size(); i++) {
+         rows.addAll(executeQueryAndReturnResultOnShard(i, query));
+      }
+      if (this._shardMap != null) {
+         rows.addAll(executeQueryAndReturnResult(query));
+      }
+      for (List<String> row : rows) {
+         int shard = shardForStore(Integer.parseInt(row.get(0)));
+         Timestamp first = Timestamp.valueOf(row.get(1));
+         Timestamp last = Timestamp.valueOf(row.get(2));
+         Timestamp[] span = spans.get(shard);
+         if (span == null) {
+            spans.put(shard, new Timestamp[] { first, last });
+         } else {
+            if (first.before(span[0])) span[0] = first;
+            if (last.after(span[1])) span[1] = last;
+         }
+      }
+      return spans;
+   }
+
+   /*
+    * Returns the quoted statuses an order may move to status from, for a
+    * TRIM(orderStatus) IN (...) condition.
+    */
+   private static String transitionsTo(String status) throws SQLException {
+      status = status.trim();
+      StringBuilder from = new StringBuilder();
+      for (String[] transition : ORDER_STATUS_TRANSITIONS) {
+         if (!transition[1].equals(status)) continue;
+         if (from.length() > 0) from.append(", ");
+         from.append("'").append(transition[0]).append("'");
+      }
+      if (from.length() == 0) {
+         throw new SQLException("No order can be moved to status '" + status + "'");
+      }
+      return from.toString();
+   }
+
    /**
     * Method to close the physical connection if it is open.
     */
    public void cleanup(){
+      if (this._journal != null){
+         this._journal.close ();
+      }//end if
       try{
+         for (Connection conn : this._shards){
+            if (conn != this._connection){
+               conn.close ();
+            }//end if
+         }//end for
          if (this._connection != null){
             this._connection.close ();
          }//end if
@@ -228,15 +818,28 @@ public class PizzaStore {
    /**
     * The main execution method
     *
-    * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
+    * @param args the command line arguments this inclues the <dbname> <port> <user>
+    *             followed by the options [--shards <shard map file>] [--journal <journal file>]
     */
    public static void main (String[] args) {
-      if (args.length != 3) {
+      String shardFile = null;
+      String journalFile = null;
+      boolean validArgs = args.length >= 3;
+      for (int i = 3; validArgs && i < args.length; i++) {
+         if (args[i].equals("--shards") && i + 1 < args.length) {
+            shardFile = args[++i];
+         } else if (args[i].equals("--journal") && i + 1 < args.length) {
+            journalFile = args[++i];
+         } else {
+            validArgs = false;
+         }
+      }
+      if (!validArgs) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             PizzaStore.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user> [--shards <shard map file>] [--journal <journal file>]");
          return;
       }//end if
 
@@ -250,7 +853,13 @@ public class PizzaStore {
          String dbname = args[0];
          String dbport = args[1];
          String user = args[2];
-         esql = new PizzaStore (dbname, dbport, user, "");
+         ShardMap shardMap = shardFile == null ? null : new ShardMap(shardFile);
+         esql = new PizzaStore (dbname, dbport, user, "", shardMap);
+         if (journalFile != null) {
+            // the replay thread gets connections of its own
+            esql._journal = new OrderJournal(journalFile, esql,
+               new PizzaStore (dbname, dbport, user, "", shardMap));
+         }
 
          boolean keepon = true;
          while(keepon) {
@@ -261,6 +870,7 @@ public class PizzaStore {
             System.out.println("2. Log in");
             System.out.println("9. < EXIT");
             String authorisedUser = null;
+            esql.setOperationClass(AdmissionControl.OpClass.MENU);
             switch (readChoice()){
                case 1: CreateUser(esql); break;
                case 2: authorisedUser = LogIn(esql); break;
@@ -283,6 +893,7 @@ public class PizzaStore {
 
                 //**the following functionalities should only be able to be used by drivers & managers**
                 if(!authorisedUser.trim().equals("customer")) System.out.println("9. Update Order Status");
+                if(!authorisedUser.trim().equals("customer")) System.out.println("12. Bulk Update Order Status");
 
                 //**the following functionalities should ony be able to be used by managers**
                 if(authorisedUser.trim().equals("manager")) System.out.println("10. Update Menu");
@@ -290,7 +901,9 @@ public class PizzaStore {
 
                 System.out.println(".........................");
                 System.out.println("20. Log out");
-                switch (readChoice()){
+                int choice = readChoice();
+                esql.setOperationClass(operationClassOf(choice, authorisedUser));
+                switch (choice){
                    case 1: viewProfile(esql); break;
                    case 2: updateProfile(esql); break;
                    case 3: viewMenu(esql); break;
@@ -302,6 +915,7 @@ public class PizzaStore {
                    case 9: if(authorisedUser.trim().equals("customer")) break; updateOrderStatus(esql); break;
                    case 10: if(!authorisedUser.trim().equals("manager")) break; updateMenu(esql); break;
                    case 11: if(!authorisedUser.trim().equals("manager")) break; updateUser(esql); break;
+                   case 12: if(authorisedUser.trim().equals("customer")) break; bulkUpdateOrderStatus(esql); break;
 
 
 
@@ -327,6 +941,23 @@ public class PizzaStore {
       }//end try
    }//end main
 
+   /*
+    * The admission control class of a user menu choice: orders and status
+    * updates are served first. The order history of all customers, which
+    * only managers and drivers see, counts as a report; a customer's own
+    * orders and single order lookups are point reads like the menu.
+    */
+   private static AdmissionControl.OpClass operationClassOf(int choice, String authorisedUser) {
+      switch (choice) {
+         case 4: return AdmissionControl.OpClass.ORDER;
+         case 9: case 12: return AdmissionControl.OpClass.STATUS;
+         case 5: case 6:
+            if (!authorisedUser.trim().equals("customer")) return AdmissionControl.OpClass.REPORT;
+            return AdmissionControl.OpClass.MENU;
+         default: return AdmissionControl.OpClass.MENU;
+      }
+   }//end operationClassOf
+
    public static void Greeting(){
       System.out.println(
          "\n\n*******************************************************\n" +
@@ -383,10 +1014,7 @@ public class PizzaStore {
          System.out.print("Enter phone number: ");
          String phone = in.readLine();
 
-         String query = "INSERT INTO Users (login, password, phoneNum, role, favoriteItems) VALUES ('" 
-                + username + "', '" 
-                + password + "', '" 
-                + phone + "', 'customer', '');";
+         String query = String.format(Sql.INSERT_USER, username, password, phone);
 
 
          esql.executeUpdate(query);
@@ -410,7 +1038,7 @@ public class PizzaStore {
          String password = in.readLine().trim();
          esql.password = password;
 
-         String query = "SELECT role FROM Users WHERE login = '" + username + "' AND password = '" + password + "';";
+         String query = String.format(Sql.LOG_IN, username, password);
          esql.executeQueryAndPrintResult(query);
          List<List<String>> result = esql.executeQueryAndReturnResult(query); 
 
@@ -433,7 +1061,7 @@ public class PizzaStore {
    public static void viewProfile(PizzaStore esql) {
       try {
          
-         String query = "SELECT favoriteItems, phoneNum FROM Users WHERE login = '" + esql.login + "';";
+         String query = String.format(Sql.USER_PROFILE, esql.login);
          List<List<String>> result = esql.executeQueryAndReturnResult(query);
 
          if (!result.isEmpty()) {
@@ -460,11 +1088,11 @@ public class PizzaStore {
          if (choice == 1) {
                System.out.print("Enter new password: ");
                String newPassword = in.readLine();
-               query = "UPDATE Users SET password = '" + newPassword + "' WHERE login = '" + esql.login + "';";
+               query = String.format(Sql.UPDATE_USER_PASSWORD, newPassword, esql.login);
          } else if (choice == 2) {
                System.out.print("Enter new phone number: ");
                String newPhone = in.readLine();
-               query = "UPDATE Users SET phoneNum = '" + newPhone + "' WHERE login = '" + esql.login + "';";
+               query = String.format(Sql.UPDATE_USER_PHONE, newPhone, esql.login);
          } else {
                System.out.println("Invalid option.");
                return;
@@ -508,8 +1136,7 @@ public class PizzaStore {
    }
 
    private static void displayAllItems(PizzaStore esql) throws IOException, SQLException {
-      String query = "SELECT * FROM Items;";
-      esql.executeQueryAndPrintResult(query);
+      esql.executeQueryAndPrintResult(Sql.ALL_ITEMS);
       
       while (true) {
          System.out.print("\nFilter by ('price asc', 'price desc' or 'exit'): ");
@@ -521,12 +1148,10 @@ public class PizzaStore {
          
          switch (modifier) {
                case "price asc":
-                  query = "SELECT * FROM Items ORDER BY price ASC;";
-                  esql.executeQueryAndPrintResult(query);
+                  esql.executeQueryAndPrintResult(Sql.ITEMS_BY_PRICE_ASC);
                   break;
                case "price desc":
-                  query = "SELECT * FROM Items ORDER BY price DESC;";
-                  esql.executeQueryAndPrintResult(query);
+                  esql.executeQueryAndPrintResult(Sql.ITEMS_BY_PRICE_DESC);
                   break;
                default:
                   break;
@@ -534,7 +1159,7 @@ public class PizzaStore {
       }
    }
 
-   public static void displayLessThan(PizzaStore esql, String category, String query) throws IOException, SQLException {
+   public static void displayLessThan(PizzaStore esql, String category, String searchTerm) throws IOException, SQLException {
       System.out.print("\nFilter by less than ('price' or 'exit'): ");
       String modifier = in.readLine();
 
@@ -544,14 +1169,11 @@ public class PizzaStore {
 
       switch (category) {
          case "all":
-            query = "SELECT * FROM Items WHERE price < ";
-
-            query += modifier + ";";
-            esql.executeQueryAndPrintResult(query);
+            esql.executeQueryAndPrintResult(String.format(Sql.ITEMS_BELOW_PRICE, modifier));
+            break;
          case "search":
-            query = query.substring(0, query.length() - 1);
-            query += " AND price < " + modifier + ";";
-            esql.executeQueryAndPrintResult(query);
+            esql.executeQueryAndPrintResult(String.format(Sql.ITEMS_OF_TYPE_BELOW_PRICE, searchTerm, modifier));
+            break;
       }
    }
 
@@ -559,9 +1181,8 @@ public class PizzaStore {
       System.out.print("\nEnter Search parameter (ex: drinks, sides, etc,...): ");
       String searchTerm = in.readLine();
       
-      String query = "SELECT * FROM Items WHERE TRIM(typeOfItem) = '" + searchTerm + "';";
-      esql.executeQueryAndPrintResult(query);
-      displayLessThan(esql, "search", query);
+      esql.executeQueryAndPrintResult(String.format(Sql.ITEMS_OF_TYPE, searchTerm));
+      displayLessThan(esql, "search", searchTerm);
    }
 
    // Add logic to limit to user
@@ -570,39 +1191,52 @@ public class PizzaStore {
          System.out.print("Choose Store: ");
          String store = in.readLine();
 
-         // insert order into ORDERS now and get order ID
-         List<List<String>> result = esql.executeQueryAndReturnResult("SELECT MAX(orderID) FROM FoodOrder;");
-         int orderID = 1;
-         if(!result.isEmpty()){
-            orderID = Integer.parseInt(result.get(0).get(0)) + 1;
+         // the order lives on the shard that owns the store
+         OrderJournal.Order order = new OrderJournal.Order();
+         order.login = esql.login;
+         order.storeID = Integer.parseInt(store.trim());
+         int shard = esql.shardForStore(order.storeID);
+         if(!esql.storeExists(order.storeID)){
+            System.out.println("Store not found.");
+            return;
          }
-         String query = "INSERT INTO FoodOrder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus) VALUES ('" 
-            + orderID + "', '" 
-            + esql.login + "', '" 
-            + store + "', 0, '" + Instant.now() + "' , 'incomplete');";
-         esql.executeUpdate(query);
-
 
+         // collect the whole order first, it is stored in one go below
          System.out.print("Choose item(Enter DONE when finished):  ");
          String item = in.readLine();
          int totalPrice = 0;
          while(!item.equals("DONE")){
-            System.out.print("Choose quantity: ");
-            int quantity = readChoice();
-
-            double price = Double.parseDouble(esql.executeQueryAndReturnResult("SELECT price FROM Items WHERE itemName = '" + item + "';").get(0).get(0));
-            totalPrice += price * quantity;
-            // insert order into itemonorder
-            query = "INSERT INTO ItemsInOrder (orderID, itemName, quantity) VALUES ('" 
-               + orderID + "', '" 
-               + item + "', '" 
-               + quantity + "');";
-            esql.executeUpdate(query);
+            // an item appears once per order, ItemsInOrder would reject the second row
+            Double price = null;
+            if(order.items.contains(item)){
+               System.out.println("Item already in this order.");
+            } else if((price = esql.itemPrice(item)) == null){
+               System.out.println("Item not found.");
+            } else {
+               System.out.print("Choose quantity: ");
+               int quantity = readChoice();
+
+               totalPrice += price * quantity;
+               order.items.add(item);
+               order.quantities.add(quantity);
+            }
             System.out.print("Choose item(Enter DONE when finished):  ");
             item = in.readLine();
          }
-         query = "UPDATE FoodOrder SET totalPrice = '" + totalPrice + "' WHERE orderID = '" + orderID + "';";
-         esql.executeUpdate(query);
+         order.totalPrice = totalPrice;
+         order.orderTimestamp = Instant.now().toString();
+
+         if (esql._journal != null) {
+            // accepted once it is on disk, the journal replays it into the
+            // database; nothing above waited for the database either
+            esql._journal.append(order, shard);
+            System.out.println("Order " + order.orderID + " accepted.");
+         } else {
+            order.orderID = esql.nextOrderID(shard);
+            List<OrderJournal.Order> orders = new ArrayList<OrderJournal.Order>();
+            orders.add(order);
+            esql.insertOrders(shard, orders);
+         }
       }
       catch (Exception e){
          System.out.println("Error: " + e.getMessage());
@@ -613,10 +1247,10 @@ public class PizzaStore {
    public static void viewAllOrders(PizzaStore esql, String authorisedUser) {
       try {
          if(authorisedUser.trim().equals("customer")){
-            esql.executeQueryAndPrintResult("SELECT orderID FROM FoodOrder WHERE login = '" + esql.login + "' ORDER BY orderTimeStamp DESC");
+            esql.executeScatterQueryAndPrintResult(String.format(Sql.ORDERS_OF_CUSTOMER, esql.login), 2, 0);
             return;
          } else{
-            esql.executeQueryAndPrintResult("SELECT orderID FROM FoodOrder ORDER BY orderTimeStamp DESC");
+            esql.executeScatterQueryAndPrintResult(Sql.ALL_ORDERS, 2, 0);
          }
       } catch (Exception e){
          System.out.println("Error: " + e.getMessage());
@@ -626,10 +1260,10 @@ public class PizzaStore {
    public static void viewRecentOrders(PizzaStore esql, String authorisedUser) {
       try{
          if(authorisedUser.trim().equals("customer")){
-            esql.executeQueryAndPrintResult("SELECT orderID FROM FoodOrder WHERE login = '" + esql.login + "' ORDER BY orderTimeStamp DESC LIMIT(5)");
+            esql.executeScatterQueryAndPrintResult(String.format(Sql.RECENT_ORDERS_OF_CUSTOMER, esql.login), 2, 5);
             return;
          } else{
-            esql.executeQueryAndPrintResult("SELECT orderID FROM FoodOrder ORDER BY orderTimeStamp DESC LIMIT(5)");
+            esql.executeScatterQueryAndPrintResult(Sql.RECENT_ORDERS, 2, 5);
          }
       } catch (Exception e) {
          System.out.println("Error: " + e.getMessage());
@@ -638,17 +1272,24 @@ public class PizzaStore {
    // Add logic to limit to user
    public static void viewOrderInfo(PizzaStore esql, String authorisedUser) {
       try{
+         System.out.print("Choose Order: ");
+         String order = in.readLine();
+         List<String> registered = esql.findOrder(Integer.parseInt(order.trim()));
+         if(registered == null){
+            System.out.println("Order not found.");
+            return;
+         }
+         int shard = esql.shardForStore(Integer.parseInt(registered.get(0)));
+         // with the registered timestamp both lookups only touch the order's month partition
+         String query = String.format(Sql.ORDER_INFO, order, registered.get(1));
          if(authorisedUser.trim().equals("customer")){
-            System.out.print("Choose Order: ");
-            String order = in.readLine();
-            esql.executeQueryAndPrintResult("SELECT * FROM FoodOrder WHERE orderID = '" + order + "' AND login ='" + esql.login + "';");
-            esql.executeQueryAndPrintResult("SELECT itemName, quantity FROM ItemsInOrder WHERE orderID = '" + order + "' AND login ='" + esql.login + "';");
-         } else{
-            System.out.print("Choose Order: ");
-            String order = in.readLine();
-            esql.executeQueryAndPrintResult("SELECT * FROM FoodOrder WHERE orderID = '" + order + "';");
-            esql.executeQueryAndPrintResult("SELECT itemName, quantity FROM ItemsInOrder WHERE orderID = '" + order + "';");
+            query = String.format(Sql.ORDER_INFO_OF_CUSTOMER, order, registered.get(1), esql.login);
+         }
+         if(esql.executeQueryAndPrintResultOnShard(shard, query) == 0){
+            System.out.println("Order not found.");
+            return;
          }
+         esql.executeQueryAndPrintResultOnShard(shard, String.format(Sql.ORDER_ITEMS, order, registered.get(1)));
          
       } catch (Exception e){
          System.out.println("Error: " + e.getMessage());
@@ -657,7 +1298,7 @@ public class PizzaStore {
    // Done
    public static void viewStores(PizzaStore esql) {
       try{
-         esql.executeQueryAndPrintResult("SELECT * FROM Store");
+         esql.executeQueryAndPrintResult(Sql.ALL_STORES);
       } catch (Exception e){
          System.out.println("Error: " + e.getMessage());
       }
@@ -669,13 +1310,77 @@ public class PizzaStore {
          String order = in.readLine();
          System.out.print("Choose Status: ");
          String status = in.readLine();
-         String query = "UPDATE FoodOrder SET orderStatus = '" + status + "' WHERE orderID = '" + order + "';";
-         esql.executeUpdate(query);
+
+         // the registry names the order's store, and so its shard, and its
+         // timestamp, and so its month partition
+         List<String> registered = esql.findOrder(Integer.parseInt(order.trim()));
+         if (registered == null) {
+            System.out.println("Order not found.");
+            return;
+         }
+         String query = String.format(Sql.UPDATE_ORDER_STATUS, status, order, registered.get(1));
+         if (esql.executeUpdateOnShard(esql.shardForStore(Integer.parseInt(registered.get(0))), query) == 0) {
+            System.out.println("Order not found.");
+         }
       } catch (Exception e){
          System.out.println("Error: " + e.getMessage());
       }
    
    }
+
+   public static void bulkUpdateOrderStatus(PizzaStore esql) {
+      try {
+         System.out.println("\n--- Bulk Update Order Status ---");
+         System.out.println("1. List of order IDs");
+         System.out.println("2. Range of order IDs");
+         System.out.println("3. Incomplete orders of a store placed before a time");
+         int choice = readChoice();
+
+         List<List<String>> updated;
+         switch (choice) {
+            case 1: {
+               System.out.print("Order IDs (comma separated): ");
+               List<Integer> orderIDs = new ArrayList<Integer>();
+               for (String id : in.readLine().split(",")) {
+                  if (!id.trim().isEmpty()) orderIDs.add(Integer.parseInt(id.trim()));
+               }
+               System.out.print("Choose Status: ");
+               updated = esql.bulkUpdateOrderStatus(orderIDs, in.readLine());
+               break;
+            }
+            case 2: {
+               System.out.print("First Order: ");
+               int first = Integer.parseInt(in.readLine().trim());
+               System.out.print("Last Order: ");
+               int last = Integer.parseInt(in.readLine().trim());
+               System.out.print("Choose Status: ");
+               updated = esql.bulkUpdateOrderStatus(first, last, in.readLine());
+               break;
+            }
+            case 3: {
+               System.out.print("Choose Store: ");
+               int storeID = Integer.parseInt(in.readLine().trim());
+               System.out.print("Placed before, local time (yyyy-mm-dd hh:mm:ss): ");
+               // orderTimestamps are stored in UTC
+               Timestamp olderThan = Timestamp.valueOf(Timestamp.valueOf(in.readLine().trim()).toLocalDateTime()
+                  .atZone(ZoneId.systemDefault()).withZoneSameInstant(ZoneOffset.UTC).toLocalDateTime());
+               System.out.print("Choose Status: ");
+               updated = esql.bulkUpdateOrderStatus(storeID, olderThan, in.readLine());
+               break;
+            }
+            default:
+               System.out.println("Invalid option.");
+               return;
+         }
+
+         System.out.println("Updated " + updated.size() + " order(s)");
+         for (List<String> row : updated) {
+            System.out.println("orderID " + row.get(0).trim() + "\tstoreID " + row.get(1).trim());
+         }
+      } catch (Exception e){
+         System.out.println("Error: " + e.getMessage());
+      }
+   }
    // Done
    public static void updateMenu(PizzaStore esql) {
       try {
@@ -695,16 +1400,16 @@ public class PizzaStore {
                System.out.print("New Description(0 for no change): ");
                description = in.readLine();            
                if(!price.equals("0")){
-                  esql.executeUpdate("UPDATE Items SET price = '" + price + "' WHERE itemName = '" + item + "';");
+                  esql.executeUpdate(String.format(Sql.UPDATE_ITEM_PRICE, price, item));
                }
                if(!ingredients.equals("0")){
-                  esql.executeUpdate("UPDATE Items SET ingredients = '" + ingredients + "' WHERE itemName = '" + item + "';");
+                  esql.executeUpdate(String.format(Sql.UPDATE_ITEM_INGREDIENTS, ingredients, item));
                }
                if(!type.equals("0")){
-                  esql.executeUpdate("UPDATE Items SET typeOfItem = '" + type + "' WHERE itemName = '" + item + "';");
+                  esql.executeUpdate(String.format(Sql.UPDATE_ITEM_TYPE, type, item));
                }
                if(!description.equals("0")){
-                  esql.executeUpdate("UPDATE Items SET description = '" + description + "' WHERE itemName = '" + item + "';");
+                  esql.executeUpdate(String.format(Sql.UPDATE_ITEM_DESCRIPTION, description, item));
                }
                break;
             case 2:
@@ -718,13 +1423,7 @@ public class PizzaStore {
                type = in.readLine();
                System.out.print("Description: ");
                description = in.readLine();  
-               String query = "INSERT INTO Items (itemName, ingredients, typeOfItem, Price, description) VALUES ('" 
-                  + item + "', '" 
-                  + ingredients + "', '"
-                  + type + "', '"
-                  + price + "', '"
-                  + description + "');";
-               esql.executeUpdate(query);
+               esql.executeUpdate(String.format(Sql.INSERT_ITEM, item, ingredients, type, price, description));
                break;
          }
       } catch (Exception e){
@@ -750,23 +1449,23 @@ public class PizzaStore {
             if(user.equals(esql.login)){
                esql.password = password;
             }
-            esql.executeUpdate("UPDATE Users SET password = '" + password + "' WHERE login = '" + user + "';");
+            esql.executeUpdate(String.format(Sql.UPDATE_USER_PASSWORD, password, user));
          }
          if(!role.equals("0")){
-            esql.executeUpdate("UPDATE Users SET role = '" + role + "' WHERE login = '" + user + "';");
+            esql.executeUpdate(String.format(Sql.UPDATE_USER_ROLE, role, user));
          }
          if(!favItem.equals("0")){
-            esql.executeUpdate("UPDATE Users SET favoriteItems = '" + favItem + "' WHERE login = '" + user + "';");
+            esql.executeUpdate(String.format(Sql.UPDATE_USER_FAVORITES, favItem, user));
          }
          if(!phone.equals("0")){
-            esql.executeUpdate("UPDATE Users SET phoneNum = '" + phone + "' WHERE login = '" + user + "';");
+            esql.executeUpdate(String.format(Sql.UPDATE_USER_PHONE, phone, user));
          }
          if(!newUser.equals("0")){
             if(user.equals(esql.login)){
                esql.login = newUser;
             }
-            esql.executeUpdate("UPDATE FoodOrder SET login = '" + newUser + "' WHERE login = '" + user + "';");
-            esql.executeUpdate("UPDATE Users SET login = '" + newUser + "' WHERE login = '" + user + "';");
+            esql.executeUpdateOnAllShards(String.format(Sql.UPDATE_ORDER_LOGIN, newUser, user));
+            esql.executeUpdate(String.format(Sql.UPDATE_USER_LOGIN, newUser, user));
          }
       }
       catch(Exception e){
@@ -0,0 +1,444 @@
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Query plan regression check for the statements PizzaStore issues. Every
+ * statement in the catalog below is run with EXPLAIN (ANALYZE, BUFFERS)
+ * against a database loaded with sql/src/scale_data.sql; statements that
+ * change data are rolled back. Statements EXPLAIN does not take, such as SET
+ * and FETCH, are only run, in a rolled back transaction, and fail when they
+ * do not run. Otherwise a statement fails when its plan contains a
+ * sequential scan it is not allowed to have, or when its estimated cost or
+ * shared buffer count is over budget. The run ends with index suggestions
+ * for every sequential scan that had a filter.
+ *
+ * The statements are the Sql constants PizzaStore runs, and each check is
+ * named after its constant. A constant without a check fails the run, so a
+ * statement added to Sql has to be added to the catalog as well.
+ */
+public class PlanCheck {
+
+   // budgets for single-order and single-row lookups
+   private static final double POINT_COST = 500;
+   private static final long POINT_BUFFERS = 500;
+   // no budget: the statement reads the whole table on purpose
+   private static final double NO_LIMIT = -1;
+
+   private static class Check {
+      String name;
+      String template;
+      String[] args;
+      boolean allowSeqScan;
+      double maxCost;
+      long maxBuffers;
+      boolean explain = true;
+      String setup;   // run first, in the same rolled back transaction
+
+      Check(String template, String[] args, boolean allowSeqScan, double maxCost, long maxBuffers) {
+         this.template = template;
+         this.args = args;
+         this.allowSeqScan = allowSeqScan;
+         this.maxCost = maxCost;
+         this.maxBuffers = maxBuffers;
+      }
+
+      Check withSetup(String setup) {
+         this.setup = setup;
+         return this;
+      }
+
+      String sql() {
+         return String.format(template, (Object[]) args);
+      }
+   }
+
+   private static Check point(String template, String... args) {
+      return new Check(template, args, false, POINT_COST, POINT_BUFFERS);
+   }
+
+   private static Check fullScan(String template, String... args) {
+      return new Check(template, args, true, NO_LIMIT, (long) NO_LIMIT);
+   }
+
+   private static Check runs(String template, String... args) {
+      Check check = new Check(template, args, true, NO_LIMIT, (long) NO_LIMIT);
+      check.explain = false;
+      return check;
+   }
+
+   /*
+    * Every statement PizzaStore issues. Placeholders are filled in from a
+    * sample order: :login :password :item :type :store :order :ts :cutoff
+    * :other (a second login).
+    */
+   private static List<Check> catalog() {
+      List<Check> c = new ArrayList<Check>();
+      // CreateUser, LogIn, viewProfile, updateProfile, updateUser
+      c.add(point(Sql.INSERT_USER, "plancheck", "pw", "555"));
+      c.add(point(Sql.LOG_IN, ":login", ":password"));
+      c.add(point(Sql.USER_PROFILE, ":login"));
+      c.add(point(Sql.UPDATE_USER_PASSWORD, "pw", ":login"));
+      c.add(point(Sql.UPDATE_USER_PHONE, "555", ":login"));
+      c.add(point(Sql.UPDATE_USER_ROLE, "customer", ":login"));
+      c.add(point(Sql.UPDATE_USER_FAVORITES, "x", ":login"));
+      c.add(point(Sql.UPDATE_USER_LOGIN, "plancheck", ":login"));
+      c.add(point(Sql.UPDATE_ORDER_LOGIN, ":other", ":login"));
+
+      // viewMenu
+      c.add(fullScan(Sql.ALL_ITEMS));
+      c.add(fullScan(Sql.ITEMS_BY_PRICE_ASC));
+      c.add(fullScan(Sql.ITEMS_BY_PRICE_DESC));
+      c.add(point(Sql.ITEMS_BELOW_PRICE, "2"));
+      c.add(point(Sql.ITEMS_OF_TYPE, ":type"));
+      c.add(point(Sql.ITEMS_OF_TYPE_BELOW_PRICE, ":type", "20"));
+
+      // placeOrder, reserveOrderIDs, findOrder, insertOrders
+      c.add(point(Sql.STORE_EXISTS, ":store"));
+      c.add(point(Sql.ITEM_PRICE, ":item"));
+      c.add(fullScan(Sql.STORE_IDS));
+      c.add(fullScan(Sql.ITEM_PRICES));
+      c.add(point(Sql.RESERVE_ORDER_IDS, "100"));
+      c.add(point(Sql.FIND_ORDER, ":order"));
+      c.add(point(Sql.CREATE_ORDER_PARTITION, ":ts"));
+      c.add(point(Sql.ORDER_ID_SEQUENCE));
+      c.add(point(Sql.REGISTER_ORDERS, "(':order', ':store', ':ts'), ('-1', ':store', ':ts')"));
+      c.add(point(Sql.INSERT_ORDERS, "('-1', ':login', ':store', '0', ':ts', 'incomplete'), ('-2', ':login', ':store', '0', ':ts', 'incomplete')"));
+      c.add(point(Sql.INSERT_ORDER_ITEMS, "(':order', ':item', '1', ':ts')")
+         .withSetup("DELETE FROM ItemsInOrder WHERE orderID = ':order' AND itemName = ':item' AND orderTimestamp = ':ts';"));
+
+      // admitted, AdmissionControl: any lock keys do, the database is only
+      // used by the check
+      c.add(runs(Sql.SET_STATEMENT_TIMEOUT, "5000"));
+      c.add(runs(Sql.SET_LOCK_TIMEOUT, "2000"));
+      c.add(point(Sql.TAKE_SLOT, "15", "166000"));
+      c.add(point(Sql.TAKE_SLOT_UNLESS_WAITERS, "7", "166008", "166002"));
+      c.add(point(Sql.NO_WAITERS, "166008"));
+      c.add(point(Sql.JOIN_WAITERS, "166008"));
+      c.add(point(Sql.WAIT_FOR_SLOT, "166000", "0"));
+      c.add(point(Sql.LEAVE_QUEUE, "166004", "0"));
+      c.add(point(Sql.LEAVE_QUEUE_AND_WAITERS, "166004", "0", "166008"));
+      c.add(point(Sql.RELEASE_SLOT, "166000", "0"));
+
+      // viewAllOrders, viewRecentOrders
+      c.add(runs(Sql.DECLARE_SCATTER, Sql.RECENT_ORDERS));
+      c.add(runs(Sql.FETCH_SCATTER, "500")
+         .withSetup(String.format(Sql.DECLARE_SCATTER, Sql.RECENT_ORDERS)));
+      c.add(new Check(Sql.ORDERS_OF_CUSTOMER, new String[] { ":login" }, false, POINT_COST, POINT_BUFFERS));
+      c.add(fullScan(Sql.ALL_ORDERS));
+      c.add(point(Sql.RECENT_ORDERS_OF_CUSTOMER, ":login"));
+      c.add(point(Sql.RECENT_ORDERS));
+
+      // viewOrderInfo, viewStores
+      c.add(point(Sql.ORDER_INFO, ":order", ":ts"));
+      c.add(point(Sql.ORDER_INFO_OF_CUSTOMER, ":order", ":ts", ":login"));
+      c.add(point(Sql.ORDER_ITEMS, ":order", ":ts"));
+      c.add(fullScan(Sql.ALL_STORES));
+
+      // updateOrderStatus, bulkUpdateOrderStatus
+      c.add(point(Sql.UPDATE_ORDER_STATUS, "complete", ":order", ":ts"));
+      c.add(point(Sql.ORDER_SPANS_OF_LIST, ":order, 1, 2"));
+      c.add(point(Sql.ORDER_SPANS_OF_RANGE, ":order", ":order + 20"));
+      c.add(point(Sql.BULK_STATUS_OF_LIST, "complete", ":order, 1, 2", ":ts", ":ts", "'incomplete'"));
+      c.add(point(Sql.BULK_STATUS_OF_RANGE, "complete", ":order", ":order + 20", ":ts", ":ts", "'incomplete'"));
+      c.add(point(Sql.BULK_STATUS_OF_STORE, "complete", ":store", ":cutoff", "'incomplete'"));
+
+      // updateMenu
+      c.add(point(Sql.UPDATE_ITEM_PRICE, "1", ":item"));
+      c.add(point(Sql.UPDATE_ITEM_INGREDIENTS, "x", ":item"));
+      c.add(point(Sql.UPDATE_ITEM_TYPE, "x", ":item"));
+      c.add(point(Sql.UPDATE_ITEM_DESCRIPTION, "x", ":item"));
+      c.add(point(Sql.INSERT_ITEM, "plancheck item", "x", "x", "1", "x"));
+      return c;
+   }
+
+   /*
+    * Maps the text of every Sql constant to the constant's name.
+    */
+   private static Map<String, String> sqlConstants() throws IllegalAccessException {
+      Map<String, String> names = new LinkedHashMap<String, String>();
+      for (Field field : Sql.class.getFields()) {
+         if (Modifier.isStatic(field.getModifiers()) && field.getType() == String.class) {
+            names.put((String) field.get(null), field.getName());
+         }
+      }
+      return names;
+   }
+
+   private static final Pattern COST = Pattern.compile("cost=[0-9.]+\\.\\.([0-9.]+)");
+   private static final Pattern BUFFERS = Pattern.compile("Buffers: shared(?: hit=([0-9]+))?(?: read=([0-9]+))?");
+   private static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\w+)");
+   private static final Pattern PARTITION = Pattern.compile("_[0-9]{4}_[0-9]{2}$");
+
+   /**
+    * Runs the catalog
+    *
+    * @param args <dbname> <port> <user> [--report <file>]
+    */
+   public static void main(String[] args) {
+      if (args.length != 3 && !(args.length == 5 && args[3].equals("--report"))) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            PlanCheck.class.getName () +
+            " <dbname> <port> <user> [--report <file>]");
+         System.exit(2);
+      }
+
+      StringWriter report = new StringWriter();
+      PrintWriter out = new PrintWriter(report);
+      int failures = 0;
+      Connection conn = null;
+      try {
+         Class.forName ("org.postgresql.Driver");
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         conn = DriverManager.getConnection(url, args[2], "");
+         conn.setAutoCommit(false);
+
+         String[][] samples = samples(conn);
+         Set<String> recommendations = new LinkedHashSet<String>();
+         Map<String, String> unchecked = sqlConstants();
+         List<Check> catalog = catalog();
+         for (Check check : catalog) {
+            check.name = unchecked.remove(check.template);
+            if (check.name == null) {
+               check.name = check.template;
+            }
+         }
+         for (String name : unchecked.values()) {
+            out.println("FAIL  Sql." + name + ": no plan check in the catalog");
+            failures++;
+         }
+
+         for (Check check : catalog) {
+            String sql = fill(check.sql(), samples);
+
+            List<String> plan;
+            try {
+               if (check.setup != null) {
+                  Statement stmt = conn.createStatement();
+                  stmt.execute(fill(check.setup, samples));
+                  stmt.close();
+               }
+               if (!check.explain) {
+                  Statement stmt = conn.createStatement();
+                  stmt.execute(sql);
+                  stmt.close();
+                  out.println("ok    " + check.name + " (runs)");
+                  continue;
+               }
+               plan = explain(conn, sql);
+            } catch (SQLException e) {
+               out.println("FAIL  " + check.name + ": " + e.getMessage().trim());
+               failures++;
+               continue;
+            } finally {
+               conn.rollback();
+            }
+
+            List<String> problems = new ArrayList<String>();
+            double cost = 0;
+            Matcher m = COST.matcher(plan.get(0));
+            if (m.find()) cost = Double.parseDouble(m.group(1));
+            long buffers = 0;
+            for (String line : plan) {
+               m = BUFFERS.matcher(line);
+               if (m.find()) {
+                  if (m.group(1) != null) buffers += Long.parseLong(m.group(1));
+                  if (m.group(2) != null) buffers += Long.parseLong(m.group(2));
+                  break;   // the first Buffers line belongs to the top node and covers the rest
+               }
+            }
+
+            for (int i = 0; i < plan.size(); i++) {
+               m = SEQ_SCAN.matcher(plan.get(i));
+               if (!m.find()) continue;
+               String table = PARTITION.matcher(m.group(1)).replaceFirst("");
+               String filter = filterOf(plan, i);
+               if (!check.allowSeqScan) {
+                  problems.add("seq scan on " + m.group(1));
+               }
+               if (filter != null) {
+                  recommendations.add(recommendIndex(table, filter) + "   -- " + check.name);
+               }
+            }
+            if (check.maxCost >= 0 && cost > check.maxCost) {
+               problems.add("cost " + cost + " > " + check.maxCost);
+            }
+            if (check.maxBuffers >= 0 && buffers > check.maxBuffers) {
+               problems.add("buffers " + buffers + " > " + check.maxBuffers);
+            }
+
+            if (problems.isEmpty()) {
+               out.println("ok    " + check.name + " (cost " + cost + ", buffers " + buffers + ")");
+            } else {
+               out.println("FAIL  " + check.name + ": " + String.join(", ", problems));
+               for (String line : plan) {
+                  out.println("         " + line);
+               }
+               failures++;
+            }
+         }
+
+         out.println();
+         out.println("Index recommendations");
+         out.println("---------------------");
+         if (recommendations.isEmpty()) out.println("none");
+         for (String r : recommendations) {
+            out.println(r);
+         }
+         out.println();
+         out.println(failures + " of " + (catalog.size() + unchecked.size()) + " statements failed");
+      } catch (Exception e) {
+         out.println("Error: " + e.getMessage());
+         failures++;
+      } finally {
+         try {
+            if (conn != null) conn.close();
+         } catch (SQLException e) {
+            // ignored.
+         }
+      }
+
+      out.flush();
+      System.out.print(report);
+      if (args.length == 5) {
+         try {
+            FileWriter file = new FileWriter(args[4]);
+            file.write(report.toString());
+            file.close();
+         } catch (IOException e) {
+            System.err.println("Error - Unable to write report: " + e.getMessage());
+         }
+      }
+      System.exit(failures == 0 ? 0 : 1);
+   }//end main
+
+   /*
+    * Picks real values for the catalog placeholders from the most recent
+    * order, so lookups hit existing rows.
+    */
+   private static String[][] samples(Connection conn) throws SQLException {
+      Statement stmt = conn.createStatement();
+      ResultSet rs = stmt.executeQuery(
+         "SELECT f.orderID, f.orderTimestamp, f.storeID, u.login, u.password, i.itemName, TRIM(i.typeOfItem), "
+         + "(SELECT login FROM Users WHERE login <> u.login LIMIT 1) "
+         + "FROM FoodOrder f JOIN Users u ON u.login = f.login "
+         + "JOIN ItemsInOrder io ON io.orderID = f.orderID AND io.orderTimestamp = f.orderTimestamp "
+         + "JOIN Items i ON i.itemName = io.itemName "
+         + "ORDER BY f.orderTimestamp DESC LIMIT 1;");
+      if (!rs.next()) {
+         stmt.close();
+         throw new SQLException("No orders to sample, load the data first");
+      }
+      String[][] samples = {
+         { ":password", rs.getString(5) },
+         { ":cutoff", rs.getString(2) },
+         { ":login", rs.getString(4) },
+         { ":order", rs.getString(1) },
+         { ":store", rs.getString(3) },
+         { ":other", rs.getString(8) },
+         { ":item", rs.getString(6) },
+         { ":type", rs.getString(7) },
+         { ":ts", rs.getString(2) },
+      };
+      stmt.close();
+      return samples;
+   }
+
+   private static String fill(String sql, String[][] samples) {
+      for (String[] sample : samples) {
+         sql = sql.replace(sample[0], sample[1]);
+      }
+      return sql;
+   }
+
+   private static List<String> explain(Connection conn, String sql) throws SQLException {
+      Statement stmt = conn.createStatement();
+      ResultSet rs = stmt.executeQuery("EXPLAIN (ANALYZE, BUFFERS) " + sql);
+      List<String> plan = new ArrayList<String>();
+      while (rs.next()) {
+         plan.add(rs.getString(1));
+      }
+      stmt.close();
+      return plan;
+   }
+
+   /*
+    * Returns the Filter of the plan node on line node, if it has one.
+    */
+   private static String filterOf(List<String> plan, int node) {
+      for (int i = node + 1; i < plan.size() && !plan.get(i).contains("->"); i++) {
+         String line = plan.get(i).trim();
+         if (line.startsWith("Filter: ")) return line.substring("Filter: ".length());
+      }
+      return null;
+   }
+
+   /*
+    * Drops the unmatched parentheses splitting a filter at AND leaves behind,
+    * then any parentheses wrapping the whole term.
+    */
+   private static String trimParens(String term) {
+      int depth = 0;
+      for (char ch : term.toCharArray()) {
+         if (ch == '(') depth++;
+         if (ch == ')') depth--;
+      }
+      for (; depth > 0 && term.startsWith("("); depth--) term = term.substring(1);
+      for (; depth < 0 && term.endsWith(")"); depth++) term = term.substring(0, term.length() - 1);
+
+      while (term.startsWith("(") && term.endsWith(")")) {
+         // only unwrap when the first '(' closes at the very end
+         depth = 0;
+         int close = -1;
+         for (int i = 0; i < term.length() && close < 0; i++) {
+            if (term.charAt(i) == '(') depth++;
+            if (term.charAt(i) == ')' && --depth == 0) close = i;
+         }
+         if (close != term.length() - 1) break;
+         term = term.substring(1, close).trim();
+      }
+      return term;
+   }
+
+   /*
+    * Turns a filter such as ((login)::text = 'x'::text) AND (price < 2)
+    * into CREATE INDEX ON table (login, price), keeping expressions like
+    * btrim(...) as expression index keys.
+    */
+   private static String recommendIndex(String table, String filter) {
+      List<String> keys = new ArrayList<String>();
+      for (String term : filter.split(" AND ")) {
+         term = trimParens(term.trim());
+         Matcher m = Pattern.compile("^(.+?)\\s(=|<>|<=|>=|<|>|~~|IN|= ANY)\\s").matcher(term);
+         if (!m.find()) continue;
+         // drop casts and the parentheses EXPLAIN puts around bare columns
+         String key = m.group(1).replaceAll("::[a-z ]+", "").trim();
+         String unwrapped;
+         while (!(unwrapped = key.replaceAll("(?<!\\w)\\((\\w+)\\)", "$1")).equals(key)) {
+            key = unwrapped;
+         }
+         if (!key.matches("\\w+")) key = "(" + key + ")";
+         if (!keys.contains(key)) keys.add(key);
+      }
+      if (keys.isEmpty()) return "-- " + table + ": review filter " + filter;
+      return "CREATE INDEX ON " + table + " (" + String.join(", ", keys) + ");";
+   }
+}//end PlanCheck
@@ -0,0 +1,101 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps storeIDs to the database (shard) that owns their FoodOrder and
+ * ItemsInOrder rows.  The map is read from a plain text file where every
+ * non-empty line that does not start with '#' has the form
+ *
+ *    <firstStoreID> <lastStoreID> <dbname>
+ *
+ * Ranges are inclusive and must not overlap.  Several ranges may point at
+ * the same database; each distinct database becomes one shard, numbered in
+ * the order it first appears in the file.
+ */
+public class ShardMap {
+
+   private final List<int[]> _ranges = new ArrayList<int[]>();   // {first, last, shard}
+   private final List<String> _databases = new ArrayList<String>();
+
+   /**
+    * Reads a shard map file
+    *
+    * @param path location of the shard map file
+    * @throws java.io.IOException when the file cannot be read or is malformed
+    */
+   public ShardMap(String path) throws IOException {
+      BufferedReader reader = new BufferedReader(new FileReader(path));
+      try {
+         String line;
+         int lineNum = 0;
+         while ((line = reader.readLine()) != null) {
+            lineNum++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+
+            String[] parts = line.split("\\s+");
+            if (parts.length != 3) {
+               throw new IOException(path + ":" + lineNum + ": expected '<firstStoreID> <lastStoreID> <dbname>'");
+            }
+            int first, last;
+            try {
+               first = Integer.parseInt(parts[0]);
+               last = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+               throw new IOException(path + ":" + lineNum + ": storeIDs must be integers");
+            }
+            if (first > last) {
+               throw new IOException(path + ":" + lineNum + ": empty storeID range");
+            }
+            for (int[] r : _ranges) {
+               if (first <= r[1] && r[0] <= last) {
+                  throw new IOException(path + ":" + lineNum + ": range overlaps " + r[0] + "-" + r[1]);
+               }
+            }
+
+            int shard = _databases.indexOf(parts[2]);
+            if (shard < 0) {
+               shard = _databases.size();
+               _databases.add(parts[2]);
+            }
+            _ranges.add(new int[] { first, last, shard });
+         }
+      } finally {
+         reader.close();
+      }
+      if (_databases.isEmpty()) {
+         throw new IOException(path + ": no shards defined");
+      }
+   }//end ShardMap
+
+   /**
+    * @return the number of distinct shard databases
+    */
+   public int size() {
+      return _databases.size();
+   }
+
+   /**
+    * @param shard shard number
+    * @return the database name of the shard
+    */
+   public String databaseOf(int shard) {
+      return _databases.get(shard);
+   }
+
+   /**
+    * Finds the shard that owns the orders of a store
+    *
+    * @param storeID the store
+    * @return shard number, or -1 when no range covers the store
+    */
+   public int shardFor(int storeID) {
+      for (int[] r : _ranges) {
+         if (storeID >= r[0] && storeID <= r[1]) return r[2];
+      }
+      return -1;
+   }
+}//end ShardMap
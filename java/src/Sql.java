@@ -0,0 +1,85 @@
+/**
+ * SQL text of every statement PizzaStore and its AdmissionControl issue, as
+ * String.format templates.
+ * PlanCheck runs the same constants, so the plan check always sees the SQL
+ * the application sends; it fails when a constant here has no check.
+ */
+public final class Sql {
+
+   private Sql() {
+   }
+
+   // CreateUser, LogIn, viewProfile, updateProfile, updateUser
+   public static final String INSERT_USER = "INSERT INTO Users (login, password, phoneNum, role, favoriteItems) VALUES ('%s', '%s', '%s', 'customer', '');";
+   public static final String LOG_IN = "SELECT role FROM Users WHERE login = '%s' AND password = '%s';";
+   public static final String USER_PROFILE = "SELECT favoriteItems, phoneNum FROM Users WHERE login = '%s';";
+   public static final String UPDATE_USER_PASSWORD = "UPDATE Users SET password = '%s' WHERE login = '%s';";
+   public static final String UPDATE_USER_PHONE = "UPDATE Users SET phoneNum = '%s' WHERE login = '%s';";
+   public static final String UPDATE_USER_ROLE = "UPDATE Users SET role = '%s' WHERE login = '%s';";
+   public static final String UPDATE_USER_FAVORITES = "UPDATE Users SET favoriteItems = '%s' WHERE login = '%s';";
+   public static final String UPDATE_USER_LOGIN = "UPDATE Users SET login = '%s' WHERE login = '%s';";
+   public static final String UPDATE_ORDER_LOGIN = "UPDATE FoodOrder SET login = '%s' WHERE login = '%s';";
+
+   // viewMenu
+   public static final String ALL_ITEMS = "SELECT * FROM Items;";
+   public static final String ITEMS_BY_PRICE_ASC = "SELECT * FROM Items ORDER BY price ASC;";
+   public static final String ITEMS_BY_PRICE_DESC = "SELECT * FROM Items ORDER BY price DESC;";
+   public static final String ITEMS_BELOW_PRICE = "SELECT * FROM Items WHERE price < %s;";
+   public static final String ITEMS_OF_TYPE = "SELECT * FROM Items WHERE TRIM(typeOfItem) = '%s';";
+   public static final String ITEMS_OF_TYPE_BELOW_PRICE = "SELECT * FROM Items WHERE TRIM(typeOfItem) = '%s' AND price < %s;";
+
+   // placeOrder, reserveOrderIDs, findOrder, insertOrders
+   public static final String STORE_EXISTS = "SELECT 1 FROM Store WHERE storeID = '%s';";
+   public static final String ITEM_PRICE = "SELECT price FROM Items WHERE itemName = '%s';";
+   public static final String STORE_IDS = "SELECT storeID FROM Store;";
+   public static final String ITEM_PRICES = "SELECT itemName, price FROM Items;";
+   public static final String RESERVE_ORDER_IDS = "SELECT nextval('FoodOrder_orderID_seq') FROM generate_series(1, %s);";
+   public static final String FIND_ORDER = "SELECT storeID, orderTimestamp FROM OrderRegistry WHERE orderID = '%s';";
+   public static final String CREATE_ORDER_PARTITION = "SELECT create_order_partitions('%1$s', '%1$s');";
+   public static final String ORDER_ID_SEQUENCE = "SELECT increment_by, start_value FROM pg_sequences WHERE sequencename = 'foodorder_orderid_seq';";
+   // the multi-row statements take a list of (...) value tuples
+   public static final String REGISTER_ORDERS = "INSERT INTO OrderRegistry (orderID, storeID, orderTimestamp) VALUES %s ON CONFLICT (orderID) DO NOTHING RETURNING orderID;";
+   public static final String INSERT_ORDERS = "INSERT INTO FoodOrder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus) VALUES %s;";
+   public static final String INSERT_ORDER_ITEMS = "INSERT INTO ItemsInOrder (orderID, itemName, quantity, orderTimestamp) VALUES %s;";
+
+   // admitted, AdmissionControl: lock keys and slot numbers are filled in
+   public static final String SET_STATEMENT_TIMEOUT = "SET statement_timeout = %s;";
+   public static final String SET_LOCK_TIMEOUT = "SET lock_timeout = %s;";
+   public static final String TAKE_SLOT = "SELECT s FROM generate_series(0, %s) s WHERE pg_try_advisory_lock(%s, s) LIMIT 1;";
+   public static final String TAKE_SLOT_UNLESS_WAITERS = "SELECT s FROM generate_series(0, %s) s WHERE CASE WHEN pg_try_advisory_xact_lock(%s, 0) THEN pg_try_advisory_lock(%s, s) ELSE false END LIMIT 1;";
+   public static final String NO_WAITERS = "SELECT 1 WHERE pg_try_advisory_xact_lock(%s, 0);";
+   public static final String JOIN_WAITERS = "SELECT pg_advisory_lock_shared(%s, 0);";
+   public static final String WAIT_FOR_SLOT = "SELECT pg_advisory_lock(%s, %s);";
+   public static final String LEAVE_QUEUE = "SELECT set_config('lock_timeout', '0', false), pg_advisory_unlock(%s, %s);";
+   public static final String LEAVE_QUEUE_AND_WAITERS = "SELECT set_config('lock_timeout', '0', false), pg_advisory_unlock(%s, %s), pg_advisory_unlock_shared(%s, 0);";
+   public static final String RELEASE_SLOT = "SELECT pg_advisory_unlock(%s, %s);";
+
+   // viewAllOrders, viewRecentOrders; the scatter merge reads them through a cursor
+   public static final String DECLARE_SCATTER = "DECLARE scatter NO SCROLL CURSOR FOR %s;";
+   public static final String FETCH_SCATTER = "FETCH %s FROM scatter;";
+   public static final String ORDERS_OF_CUSTOMER = "SELECT orderID, orderTimeStamp FROM FoodOrder WHERE login = '%s' ORDER BY orderTimeStamp DESC";
+   public static final String ALL_ORDERS = "SELECT orderID, orderTimeStamp FROM FoodOrder ORDER BY orderTimeStamp DESC";
+   public static final String RECENT_ORDERS_OF_CUSTOMER = "SELECT orderID, orderTimeStamp FROM FoodOrder WHERE login = '%s' ORDER BY orderTimeStamp DESC LIMIT(5)";
+   public static final String RECENT_ORDERS = "SELECT orderID, orderTimeStamp FROM FoodOrder ORDER BY orderTimeStamp DESC LIMIT(5)";
+
+   // viewOrderInfo, viewStores
+   public static final String ORDER_INFO = "SELECT * FROM FoodOrder WHERE orderID = '%s' AND orderTimestamp = '%s';";
+   public static final String ORDER_INFO_OF_CUSTOMER = "SELECT * FROM FoodOrder WHERE orderID = '%s' AND orderTimestamp = '%s' AND login = '%s';";
+   public static final String ORDER_ITEMS = "SELECT itemName, quantity FROM ItemsInOrder WHERE orderID = '%s' AND orderTimestamp = '%s';";
+   public static final String ALL_STORES = "SELECT * FROM Store";
+
+   // updateOrderStatus, bulkUpdateOrderStatus
+   public static final String UPDATE_ORDER_STATUS = "UPDATE FoodOrder SET orderStatus = '%s' WHERE orderID = '%s' AND orderTimestamp = '%s';";
+   public static final String ORDER_SPANS_OF_LIST = "SELECT storeID, MIN(orderTimestamp), MAX(orderTimestamp) FROM OrderRegistry WHERE orderID IN (%s) GROUP BY storeID;";
+   public static final String ORDER_SPANS_OF_RANGE = "SELECT storeID, MIN(orderTimestamp), MAX(orderTimestamp) FROM OrderRegistry WHERE orderID BETWEEN %s AND %s GROUP BY storeID;";
+   public static final String BULK_STATUS_OF_LIST = "UPDATE FoodOrder SET orderStatus = '%s' WHERE orderID IN (%s) AND orderTimestamp BETWEEN '%s' AND '%s' AND TRIM(orderStatus) IN (%s) RETURNING orderID, storeID;";
+   public static final String BULK_STATUS_OF_RANGE = "UPDATE FoodOrder SET orderStatus = '%s' WHERE orderID BETWEEN %s AND %s AND orderTimestamp BETWEEN '%s' AND '%s' AND TRIM(orderStatus) IN (%s) RETURNING orderID, storeID;";
+   public static final String BULK_STATUS_OF_STORE = "UPDATE FoodOrder SET orderStatus = '%s' WHERE storeID = %s AND orderTimestamp < '%s' AND TRIM(orderStatus) IN (%s) RETURNING orderID, storeID;";
+
+   // updateMenu
+   public static final String UPDATE_ITEM_PRICE = "UPDATE Items SET price = '%s' WHERE itemName = '%s';";
+   public static final String UPDATE_ITEM_INGREDIENTS = "UPDATE Items SET ingredients = '%s' WHERE itemName = '%s';";
+   public static final String UPDATE_ITEM_TYPE = "UPDATE Items SET typeOfItem = '%s' WHERE itemName = '%s';";
+   public static final String UPDATE_ITEM_DESCRIPTION = "UPDATE Items SET description = '%s' WHERE itemName = '%s';";
+   public static final String INSERT_ITEM = "INSERT INTO Items (itemName, ingredients, typeOfItem, Price, description) VALUES ('%s', '%s', '%s', '%s', '%s');";
+}//end Sql
@@ -0,0 +1,11 @@
+#!/bin/bash
+# Builds the scaled database that java/scripts/plan_check.sh runs against.
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+DB=${1:-$USER"_plan_check_DB"}
+#cs166_createdb $DB
+cs166_psql -p $PGPORT $DB < $DIR/../src/create_tables.sql
+cs166_psql -p $PGPORT $DB < $DIR/../src/create_partitions.sql
+cs166_psql -p $PGPORT $DB < $DIR/../src/create_indexes.sql
+cs166_psql -p $PGPORT $DB < $DIR/../src/create_order_indexes.sql
+cs166_psql -p $PGPORT $DB < $DIR/../src/load_data.sql
+cs166_psql -p $PGPORT $DB < $DIR/../src/scale_data.sql
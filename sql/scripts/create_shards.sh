@@ -0,0 +1,21 @@
+#!/bin/bash
+# Creates the order tables on every database of a shard map and loads the
+# orders of each storeID range into its shard. Shards are numbered in the
+# order their database first appears in the map, as PizzaStore numbers them.
+# Usage: create_shards.sh <shard map file>
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+SHARDS=${1:-$DIR/../../java/config/shards.conf}
+DBS=$(grep -v '^\s*#' $SHARDS | awk 'NF == 3 && !seen[$3]++ { print $3 }')
+COUNT=$(echo "$DBS" | wc -l)
+
+for DB in $DBS; do
+   #cs166_createdb $DB
+   cs166_psql -p $PGPORT $DB < $DIR/../src/create_shard_tables.sql
+   cs166_psql -p $PGPORT $DB < $DIR/../src/create_order_indexes.sql
+   cs166_psql -p $PGPORT $DB < $DIR/../src/create_partitions.sql
+done
+
+grep -v '^\s*#' $SHARDS | awk 'NF == 3' | while read FIRST LAST DB; do
+   SHARD=$(( $(echo "$DBS" | grep -nx "$DB" | cut -d: -f1) - 1 ))
+   cs166_psql -p $PGPORT -v first_store=$FIRST -v last_store=$LAST -v shard=$SHARD -v shards=$COUNT $DB < $DIR/../src/load_shard_data.sql
+done
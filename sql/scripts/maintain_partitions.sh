@@ -0,0 +1,56 @@
+#!/bin/bash
+# Monthly FoodOrder/ItemsInOrder partition maintenance, run e.g. from cron:
+#  - creates partitions MONTHS_AHEAD months ahead of today
+#  - exports every month older than RETENTION_MONTHS to gzipped CSV files in
+#    ARCHIVE_DIR and drops its partitions
+#  - removes the orders of every dropped month from the database's
+#    OrderRegistry, and from the one of REGISTRY_DB, which keeps the orders
+#    loaded before sharding, once the month is dropped in every database
+# A month whose partitions could not be dropped keeps its registry entries
+# and is tried again on the next run; the script then exits with status 1.
+# Usage: maintain_partitions.sh [dbname ...]   (default: the main database;
+#        pass the shard databases as well when orders are sharded)
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+set -o pipefail
+MONTHS_AHEAD=${MONTHS_AHEAD:-3}
+RETENTION_MONTHS=${RETENTION_MONTHS:-24}
+ARCHIVE_DIR=${ARCHIVE_DIR:-$DIR/../../archive}
+DBS=${@:-$USER"_project_phase_3_DB"}
+REGISTRY_DB=${REGISTRY_DB:-$USER"_project_phase_3_DB"}
+CUTOFF="(date_trunc('month', current_date) - interval '$RETENTION_MONTHS months')::date"
+
+# registry condition for the orders of one month (YYYY_MM)
+month_orders() {
+   echo "orderTimestamp >= to_date('$1', 'YYYY_MM') AND orderTimestamp < to_date('$1', 'YYYY_MM') + interval '1 month'"
+}
+
+mkdir -p $ARCHIVE_DIR
+DROPPED=""
+FAILED=""
+for DB in $DBS; do
+   cs166_psql -p $PGPORT -qAt -c "SELECT create_order_partitions(current_date, (current_date + interval '$MONTHS_AHEAD months')::date);" $DB
+
+   for MONTH in $(cs166_psql -p $PGPORT -qAt -c "SELECT old_order_partitions($CUTOFF);" $DB); do
+      for TABLE in foodorder itemsinorder; do
+         cs166_psql -p $PGPORT -qAt -c "COPY ${TABLE}_$MONTH TO STDOUT WITH CSV HEADER;" $DB \
+            | gzip > $ARCHIVE_DIR/$DB.${TABLE}_$MONTH.csv.gz || exit 1
+      done
+      if ! cs166_psql -p $PGPORT -qAt -v ON_ERROR_STOP=1 -c "SELECT drop_order_partition('$MONTH');" $DB; then
+         echo "$DB: could not drop the partitions of $MONTH, kept them and their registry entries" >&2
+         FAILED="$FAILED $MONTH"
+         continue
+      fi
+      cs166_psql -p $PGPORT -qAt -c "DELETE FROM OrderRegistry WHERE $(month_orders $MONTH);" $DB
+      DROPPED="$DROPPED $MONTH"
+      echo "$DB: archived orders of $MONTH"
+   done
+done
+
+# orders loaded before sharding may live in any database, so their registry
+# entries go only once no database failed to drop the month
+for MONTH in $(echo $DROPPED | tr ' ' '\n' | sort -u); do
+   if ! echo "$FAILED" | grep -qw "$MONTH"; then
+      cs166_psql -p $PGPORT -qAt -c "DELETE FROM OrderRegistry WHERE $(month_orders $MONTH);" $REGISTRY_DB
+   fi
+done
+[ -z "$FAILED" ] || exit 1
@@ -1,5 +1,9 @@
+/* Indexes of the main database tables; the order tables are indexed by
+   create_order_indexes.sql, which the shards share */
 DROP INDEX IF EXISTS users_login_hash_idx;
 DROP INDEX IF EXISTS items_price_btree_idx;
+DROP INDEX IF EXISTS items_type_btree_idx;
 
 CREATE INDEX users_login_hash_idx ON Users USING HASH (login);
 CREATE INDEX items_price_btree_idx ON Items USING BTREE (price);
+CREATE INDEX items_type_btree_idx ON Items USING BTREE (TRIM(typeOfItem));
@@ -0,0 +1,12 @@
+/* Indexes of the order tables, shared by the main database (after
+   create_indexes.sql) and every shard (after create_shard_tables.sql), so
+   the shards are indexed exactly like the database PlanCheck checks. Each
+   shard returns its orders newest first for the scatter-gather merge,
+   reading only the newest partitions when a LIMIT applies. */
+DROP INDEX IF EXISTS foodorder_timestamp_btree_idx;
+DROP INDEX IF EXISTS foodorder_login_timestamp_btree_idx;
+DROP INDEX IF EXISTS foodorder_store_timestamp_btree_idx;
+
+CREATE INDEX foodorder_timestamp_btree_idx ON FoodOrder USING BTREE (orderTimestamp);
+CREATE INDEX foodorder_login_timestamp_btree_idx ON FoodOrder USING BTREE (login, orderTimestamp);
+CREATE INDEX foodorder_store_timestamp_btree_idx ON FoodOrder USING BTREE (storeID, orderTimestamp);
@@ -0,0 +1,68 @@
+/* Monthly partitions of FoodOrder and ItemsInOrder. Partitions are named
+   foodorder_YYYY_MM and itemsinorder_YYYY_MM and cover
+   [first of the month, first of the next month) on orderTimestamp. */
+
+/* Creates the partitions for every month from first_month to last_month
+   that does not have one yet. Returns the number of months created. The
+   application calls this before storing an order, so sessions that store
+   the first order of a month at the same time take turns on a lock. */
+CREATE OR REPLACE FUNCTION create_order_partitions(first_month date, last_month date)
+RETURNS integer AS $$
+DECLARE
+   m date := date_trunc('month', first_month);
+   suffix text;
+   created integer := 0;
+BEGIN
+   PERFORM pg_advisory_xact_lock(hashtext('create_order_partitions'));
+   WHILE m <= last_month LOOP
+      suffix := to_char(m, 'YYYY_MM');
+      IF to_regclass('foodorder_' || suffix) IS NULL THEN
+         EXECUTE format('CREATE TABLE %I PARTITION OF FoodOrder FOR VALUES FROM (%L) TO (%L)',
+                        'foodorder_' || suffix, m, (m + interval '1 month')::date);
+         EXECUTE format('CREATE TABLE %I PARTITION OF ItemsInOrder FOR VALUES FROM (%L) TO (%L)',
+                        'itemsinorder_' || suffix, m, (m + interval '1 month')::date);
+         created := created + 1;
+      END IF;
+      m := (m + interval '1 month')::date;
+   END LOOP;
+   RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+/* Lists the months (YYYY_MM) whose partitions end on or before cutoff. */
+CREATE OR REPLACE FUNCTION old_order_partitions(cutoff date)
+RETURNS SETOF text AS $$
+   SELECT substring(c.relname from 11)
+   FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+   WHERE i.inhparent = 'foodorder'::regclass
+     AND c.relname ~ '^foodorder_[0-9]{4}_[0-9]{2}$'
+     AND (to_date(substring(c.relname from 11), 'YYYY_MM') + interval '1 month') <= cutoff
+   ORDER BY 1;
+$$ LANGUAGE sql;
+
+/* Removes one month of orders. The ItemsInOrder foreign key references the
+   partitioned FoodOrder, so a FoodOrder partition cannot be dropped while
+   it is attached: each partition is detached from its parent first, the
+   items before the orders they reference, and then dropped. Runs in one
+   transaction, so on error nothing is detached or dropped. A partition a
+   manual run already detached is just dropped. */
+CREATE OR REPLACE FUNCTION drop_order_partition(suffix text)
+RETURNS void AS $$
+DECLARE
+   parent text;
+BEGIN
+   FOREACH parent IN ARRAY ARRAY['itemsinorder', 'foodorder'] LOOP
+      IF to_regclass(parent || '_' || suffix) IS NULL THEN
+         CONTINUE;
+      END IF;
+      IF EXISTS (SELECT 1 FROM pg_inherits
+                 WHERE inhrelid = to_regclass(parent || '_' || suffix)) THEN
+         EXECUTE format('ALTER TABLE %I DETACH PARTITION %I', parent, parent || '_' || suffix);
+      END IF;
+      EXECUTE format('DROP TABLE %I', parent || '_' || suffix);
+   END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+/* Room for new orders: this month and the next three */
+SELECT create_order_partitions(current_date, (current_date + interval '3 months')::date);
@@ -0,0 +1,37 @@
+/* Order tables for one shard database. Users, Store and Items stay in the
+   main database, so the foreign keys to them cannot be declared here. */
+DROP TABLE IF EXISTS FoodOrder CASCADE;
+DROP TABLE IF EXISTS ItemsInOrder CASCADE;
+DROP TABLE IF EXISTS OrderRegistry CASCADE;
+DROP SEQUENCE IF EXISTS FoodOrder_orderID_seq;
+
+CREATE TABLE FoodOrder ( orderID integer NOT NULL,
+                           login varchar(50) NOT NULL, --places relationship
+                           storeID integer NOT NULL, --placedAt relationship
+                           totalPrice decimal(10,2) NOT NULL,
+                           orderTimestamp timestamp NOT NULL,
+                           orderStatus char(50),
+                           PRIMARY KEY(orderID, orderTimestamp)
+) PARTITION BY RANGE (orderTimestamp);
+
+/* orderIDs of the orders placed on this shard; load_shard_data.sql sets its
+   increment and start so that orderID % shards names this shard */
+CREATE SEQUENCE FoodOrder_orderID_seq;
+
+/* One row per order placed on this shard, registered in the same
+   transaction as the order, so orderID is unique here */
+CREATE TABLE OrderRegistry ( orderID integer NOT NULL,
+                           storeID integer NOT NULL,
+                           orderTimestamp timestamp NOT NULL,
+                           PRIMARY KEY(orderID)
+);
+
+CREATE TABLE ItemsInOrder ( orderID integer NOT NULL,
+                           itemName varchar(50) NOT NULL,
+                           quantity integer NOT NULL,
+                           orderTimestamp timestamp NOT NULL,
+                           PRIMARY KEY(orderID, itemName, orderTimestamp),
+                           FOREIGN KEY(orderID, orderTimestamp) REFERENCES FoodOrder(orderID, orderTimestamp) ON DELETE CASCADE
+) PARTITION BY RANGE (orderTimestamp);
+
+/* Indexes: create_order_indexes.sql, the same as the main database's */
@@ -3,6 +3,8 @@ DROP TABLE IF EXISTS Items CASCADE;
 DROP TABLE IF EXISTS FoodOrder CASCADE;
 DROP TABLE IF EXISTS Store CASCADE;
 DROP TABLE IF EXISTS ItemsInOrder CASCADE;
+DROP TABLE IF EXISTS OrderRegistry CASCADE;
+DROP SEQUENCE IF EXISTS FoodOrder_orderID_seq;
 
 CREATE TABLE Users ( login varchar(50) NOT NULL,
                      password varchar(30) NOT NULL,
@@ -35,21 +37,37 @@ CREATE TABLE FoodOrder ( orderID integer NOT NULL,
                            totalPrice decimal(10,2) NOT NULL,
                            orderTimestamp timestamp NOT NULL,
                            orderStatus char(50),
-                           PRIMARY KEY(orderID),
+                           PRIMARY KEY(orderID, orderTimestamp),
                            FOREIGN KEY(login) REFERENCES Users(login)
                            ON DELETE CASCADE ON UPDATE CASCADE,
                            FOREIGN KEY(storeID) REFERENCES Store(storeID)
                            ON DELETE CASCADE
-);
+) PARTITION BY RANGE (orderTimestamp);
 
+/* New orderIDs come from this sequence, shared by every session. When
+   orders are sharded each shard has its own (see load_shard_data.sql) */
+CREATE SEQUENCE FoodOrder_orderID_seq;
 
+/* One row per order, registered in the same transaction as the order. The
+   partitioned FoodOrder can only enforce (orderID, orderTimestamp), so this
+   is where orderID itself is unique. When orders are sharded each shard
+   registers its own orders, and this table keeps the orders loaded before
+   sharding; storeID names the shard that holds them */
+CREATE TABLE OrderRegistry ( orderID integer NOT NULL,
+                           storeID integer NOT NULL,
+                           orderTimestamp timestamp NOT NULL,
+                           PRIMARY KEY(orderID)
+);
 
+/* orderTimestamp is copied from FoodOrder so that the items of an order live
+   in the same month partition as the order itself */
 CREATE TABLE ItemsInOrder ( orderID integer NOT NULL,
                            itemName varchar(50) NOT NULL,
                            quantity integer NOT NULL,
-                           PRIMARY KEY(orderID, itemName),
-                           FOREIGN KEY(orderID) REFERENCES FoodOrder(orderID) ON DELETE CASCADE,
+                           orderTimestamp timestamp NOT NULL,
+                           PRIMARY KEY(orderID, itemName, orderTimestamp),
+                           FOREIGN KEY(orderID, orderTimestamp) REFERENCES FoodOrder(orderID, orderTimestamp) ON DELETE CASCADE,
                            FOREIGN KEY(itemName) REFERENCES Items(itemName)
                            ON DELETE CASCADE
-);
+) PARTITION BY RANGE (orderTimestamp);
 
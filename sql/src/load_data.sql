@@ -11,10 +11,30 @@ COPY Store
 FROM 'cs166proj/data/store.csv'
 WITH DELIMITER ',' CSV HEADER;
 
-COPY FoodOrder
+/* Orders go through staging tables: every month in the data needs its
+   partition before the rows can be inserted, and ItemsInOrder takes the
+   orderTimestamp of its order */
+CREATE TEMP TABLE FoodOrderLoad (LIKE FoodOrder);
+CREATE TEMP TABLE ItemsInOrderLoad (orderID integer, itemName varchar(50), quantity integer);
+
+COPY FoodOrderLoad
 FROM 'cs166proj/data/foodorder.csv'
 WITH DELIMITER ',' CSV HEADER;
 
-COPY ItemsInOrder
+COPY ItemsInOrderLoad
 FROM 'cs166proj/data/itemsinorder.csv'
 WITH DELIMITER ',' CSV HEADER;
+
+SELECT create_order_partitions(m, m)
+FROM (SELECT DISTINCT date_trunc('month', orderTimestamp)::date AS m FROM FoodOrderLoad) months;
+
+INSERT INTO FoodOrder SELECT * FROM FoodOrderLoad;
+
+INSERT INTO OrderRegistry (orderID, storeID, orderTimestamp)
+SELECT orderID, storeID, orderTimestamp FROM FoodOrderLoad;
+
+SELECT setval('FoodOrder_orderID_seq', COALESCE(MAX(orderID), 0) + 1, false) FROM FoodOrderLoad;
+
+INSERT INTO ItemsInOrder (orderID, itemName, quantity, orderTimestamp)
+SELECT l.orderID, l.itemName, l.quantity, f.orderTimestamp
+FROM ItemsInOrderLoad l JOIN FoodOrder f ON f.orderID = l.orderID;
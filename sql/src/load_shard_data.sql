@@ -0,0 +1,31 @@
+/* Loads the orders of stores :first_store..:last_store into one shard.
+   Run with psql -v first_store=<id> -v last_store=<id> -v shard=<n>
+   -v shards=<count>, where n is the shard's position in the shard map.
+   Replace the location to where you saved the data files*/
+CREATE TEMP TABLE FoodOrderLoad (LIKE FoodOrder);
+CREATE TEMP TABLE ItemsInOrderLoad (orderID integer, itemName varchar(50), quantity integer);
+
+COPY FoodOrderLoad
+FROM 'cs166proj/data/foodorder.csv'
+WITH DELIMITER ',' CSV HEADER;
+
+COPY ItemsInOrderLoad
+FROM 'cs166proj/data/itemsinorder.csv'
+WITH DELIMITER ',' CSV HEADER;
+
+/* New orders of this shard take the orderIDs above every loaded order that
+   are :shard modulo :shards, so an orderID names its shard */
+SELECT format('ALTER SEQUENCE FoodOrder_orderID_seq INCREMENT BY %s START WITH %s RESTART',
+              :shards, (COALESCE(MAX(orderID), 0) / :shards + 1) * :shards + :shard)
+FROM FoodOrderLoad \gexec
+
+DELETE FROM FoodOrderLoad WHERE storeID NOT BETWEEN :first_store AND :last_store;
+
+SELECT create_order_partitions(m, m)
+FROM (SELECT DISTINCT date_trunc('month', orderTimestamp)::date AS m FROM FoodOrderLoad) months;
+
+INSERT INTO FoodOrder SELECT * FROM FoodOrderLoad;
+
+INSERT INTO ItemsInOrder (orderID, itemName, quantity, orderTimestamp)
+SELECT l.orderID, l.itemName, l.quantity, f.orderTimestamp
+FROM ItemsInOrderLoad l JOIN FoodOrderLoad f ON f.orderID = l.orderID;
@@ -0,0 +1,39 @@
+/* Grows a loaded database to a size where the planner's choices matter, for
+   java/scripts/plan_check.sh. Do not run this on a real database.
+   Run with psql -v orders=<n> to change the number of generated orders. */
+\if :{?orders}
+\else
+\set orders 500000
+\endif
+
+INSERT INTO Users (login, password, role, favoriteItems, phoneNum)
+SELECT 'scaleuser' || g, 'pw' || g, 'customer', '', '555-0100'
+FROM generate_series(1, :orders / 10) g;
+
+INSERT INTO Items (itemName, ingredients, typeOfItem, price, description)
+SELECT 'Scale Item ' || g, 'generated', 'scaletype' || (g % 200), round((1 + random() * 30)::numeric, 2), 'generated'
+FROM generate_series(1, 10000) g;
+
+/* three years of orders, one partition per month */
+SELECT create_order_partitions((current_date - interval '36 months')::date, current_date);
+
+INSERT INTO FoodOrder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus)
+SELECT 1000000 + g,
+       'scaleuser' || (1 + g % (:orders / 10)),
+       1 + g % 1000,
+       round((5 + random() * 50)::numeric, 2),
+       now() - random() * interval '36 months',
+       CASE WHEN random() < 0.05 THEN 'incomplete' ELSE 'complete' END
+FROM generate_series(1, :orders) g;
+
+INSERT INTO ItemsInOrder (orderID, itemName, quantity, orderTimestamp)
+SELECT f.orderID, 'Scale Item ' || (1 + (f.orderID + k * 1000) % 10000), 1 + k % 2, f.orderTimestamp
+FROM FoodOrder f, generate_series(1, 3) k
+WHERE f.orderID > 1000000;
+
+INSERT INTO OrderRegistry (orderID, storeID, orderTimestamp)
+SELECT orderID, storeID, orderTimestamp FROM FoodOrder WHERE orderID > 1000000;
+
+SELECT setval('FoodOrder_orderID_seq', MAX(orderID) + 1, false) FROM FoodOrder;
+
+ANALYZE;